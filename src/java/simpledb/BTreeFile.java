@@ -1,8 +1,13 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.security.KeyStore;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 import javafx.scene.Parent;
 import simpledb.Predicate.Op;
@@ -18,14 +23,35 @@ import simpledb.Predicate.Op;
  * @see simpledb.BTreeInternalPage#BTreeInternalPage
  * @see simpledb.BTreeHeaderPage#BTreeHeaderPage
  * @see simpledb.BTreeRootPtrPage#BTreeRootPtrPage
+ * <p>
+ * Concurrent operations are kept apart by short-term latches on the internal pages
+ * and the root pointer page, not locks. Splits and merges latch their way down by
+ * latch coupling ("crabbing"), latching a page before releasing the latch on its
+ * parent. Searches hold one latch at a time instead, as in a B-link tree: every
+ * internal page links to its right sibling and knows its high key, so a search that
+ * reaches a page just split moves right rather than waiting for the split. Only leaf
+ * pages are locked for the rest of the transaction, as are the pages a split or merge
+ * changes, so inserts into different leaves proceed in parallel. See
+ * {@link #descend(TransactionId, HashMap, Field, boolean, Permissions, ArrayDeque)}.
+ *
  * @author Becca Taft
  */
 public class BTreeFile implements DbFile {
 
 	private final File f;
+	private final PageStore store;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	// latches on the internal pages and the root pointer page
+	private final PageLatches latches = new PageLatches();
+	// bumped by every merge, redistribution and abort, which searches cannot move right past
+	private final AtomicLong restructures = new AtomicLong();
+	// the number of aborts putting back pages of this file right now; changed under restoreLock
+	private volatile int restoring;
+	private final ReentrantLock restoreLock = new ReentrantLock();
+	// signalled when restoring drops to zero
+	private final Condition restored = restoreLock.newCondition();
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -37,6 +63,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
 		this.f = f;
+		this.store = PageStore.get(f);
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
@@ -49,6 +76,17 @@ public class BTreeFile implements DbFile {
 		return f;
 	}
 
+	/**
+	 * Serve page reads from memory mappings of the file rather than with
+	 * read calls, for indexes that are read much more than written. This
+	 * applies to every BTreeFile on the same file.
+	 *
+	 * @see PageStore#setMapped(boolean)
+	 */
+	public void setMemoryMapped(boolean mapped) {
+		store.setMapped(mapped);
+	}
+
 	/**
 	 * Returns an ID uniquely identifying this BTreeFile. Implementation note:
 	 * you will need to generate this tableid somewhere and ensure that each
@@ -80,63 +118,56 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
-
+		int pageSize = id.pgcateg() == BTreePageId.ROOT_PTR ?
+				BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+		byte pageBuf[] = new byte[pageSize];
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
-			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
+			int retval = store.read(pageOffset(id), pageBuf);
+			if (retval == -1) {
+				throw new IllegalArgumentException("Read past end of table");
 			}
-			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+			if (retval < pageSize) {
+				throw new IllegalArgumentException("Unable to read "
+						+ pageSize + " bytes from BTreeFile");
 			}
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+			return createPage(id, pageBuf);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
+		}
+	}
+
+	/**
+	 * Return the offset of a page in the file: the root pointer page comes first,
+	 * followed by the other pages in page number order, starting from 1.
+	 */
+	private static long pageOffset(BTreePageId id) {
+		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return 0;
+		}
+		return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber()-1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Build a page of the category given by its id from a page image.
+	 *
+	 * @param pid - the id of the page
+	 * @param data - the page image, as returned by getPageData()
+	 * @return the page
+	 */
+	public Page createPage(PageId pid, byte[] data) throws IOException {
+		BTreePageId id = (BTreePageId) pid;
+		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return new BTreeRootPtrPage(id, data);
+		}
+		else if(id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, data, keyField);
+		}
+		else if(id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, data, keyField);
+		}
+		else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, data);
 		}
 	}
 
@@ -149,16 +180,72 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+		store.write(pageOffset(id), page.getPageData());
+	}
+
+	// see DbFile.java for javadocs
+	public void writePages(List<Page> pages) throws IOException {
+		ByteBuffer[] data = new ByteBuffer[pages.size()];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = ByteBuffer.wrap(pages.get(i).getPageData());
 		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+		store.write(pageOffset((BTreePageId) pages.get(0).getId()), data);
+	}
+
+	// see DbFile.java for javadocs
+	public void force() throws IOException {
+		store.force();
+	}
+
+	/**
+	 * Descents read the root pointer and internal pages under latches rather than locks,
+	 * and pages are put back one at a time, so for as long as this runs new descents wait
+	 * and restructures is bumped before the first page is put back: a descent already on
+	 * its way sees the count change when it next reads a page, and starts over.
+	 */
+	@Override
+	public void restorePages(TransactionId tid, List<PageId> pids, Function<PageId, Page> restore) {
+		restoreLock.lock();
+		try {
+			restoring++;
+			restructures.incrementAndGet();
+		} finally {
+			restoreLock.unlock();
+		}
+		try {
+			for(PageId pid : pids) {
+				restore.apply(pid);
+			}
+		} finally {
+			restoreLock.lock();
+			try {
+				if(--restoring == 0) {
+					restored.signalAll();
+				}
+			} finally {
+				restoreLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Wait until no abort is putting back pages of this file, and return restructures.
+	 * Without an abort in progress the count is read before the check, so a descent
+	 * that starts while pages are put back either waits or sees the count change.
+	 */
+	private long awaitRestored() {
+		long seen = restructures.get();
+		if(restoring == 0) {
+			return seen;
+		}
+		restoreLock.lock();
+		try {
+			while(restoring > 0) {
+				restored.awaitUninterruptibly();
+			}
+			return restructures.get();
+		} finally {
+			restoreLock.unlock();
 		}
 	}
 
@@ -178,63 +265,253 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the
-	 * leaf node with permission perm.
+	 * Finds and locks the leaf page in the B+ tree corresponding to the left-most page
+	 * possibly containing the key field f, or the right-most one if reverse is set. The
+	 * leaf page is locked with permission perm; the internal pages along the path are
+	 * not locked at all. Instead the search goes down from the root pointer page with
+	 * shared latches, holding one at a time, so that readers and writers in different
+	 * parts of the tree never hold each other up.
+	 *
+	 * The latch on the leaf's parent is held until the leaf is locked, so that no split
+	 * or merge can move the leaf's keys away in between. Since waiting for a lock while
+	 * holding a latch could deadlock with the lock holder, if the leaf lock cannot be
+	 * granted at once the latch is released, the lock is waited for, and the search
+	 * starts over.
 	 *
-	 * If f is null, it finds the left-most leaf page -- used for the iterator
+	 * If f is null, it finds the left-most (right-most) leaf page -- used for the iterators
 	 *
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @param reverse - whether to find the right-most leaf page instead
+	 * @return the left-most (right-most) leaf page possibly containing the key field f
 	 *
 	 */
-	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-			Field f)
+	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
+			Field f, boolean reverse)
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-		if(pid.pgcateg() == BTreePageId.LEAF){
-			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-		}
-		BTreeInternalPageIterator btiterator = new BTreeInternalPageIterator((BTreeInternalPage) getPage(tid, dirtypages, pid, perm));
-        while(btiterator.hasNext()){
-        	BTreeEntry bt = btiterator.next();
-        	if(f == null){
-        		return  findLeafPage(tid, dirtypages, bt.getLeftChild(), perm, f);
-			}
-        	else{
-        		if(bt.getKey().compare(Op.GREATER_THAN_OR_EQ, f)){
-        			return findLeafPage(tid, dirtypages, bt.getLeftChild(), perm, f);
-				}
-        		else if(!btiterator.hasNext()){
-        			return findLeafPage(tid, dirtypages, bt.getRightChild(), perm, f);
+		ArrayDeque<BTreePageId> path = new ArrayDeque<BTreePageId>();
+		try {
+			while(true) {
+				BTreePageId leafId = descend(tid, dirtypages, f, reverse, Permissions.READ_ONLY, path);
+				BTreeLeafPage leaf = (BTreeLeafPage) tryGetPage(tid, dirtypages, leafId, perm);
+				if(leaf != null) {
+					return leaf;
 				}
+				unlatch(path);
+				getPage(tid, dirtypages, leafId, perm);
 			}
-
+		} finally {
+			unlatch(path);
 		}
-		return null;
 	}
 
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
-	 * Used by the BTreeFile iterator.
-	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+	 * Used by the BTreeFile iterators.
+	 * @see #findLeafPage(TransactionId, HashMap, Permissions, Field, boolean)
 	 *
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @param reverse - whether to find the right-most leaf page instead
+	 * @return the left-most (right-most) leaf page possibly containing the key field f
 	 *
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
-			Field f)
+	BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f, boolean reverse)
 					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		try {
+			return findLeafPage(tid, dirtypages, perm, f, reverse);
+		} finally {
+			unpinPages(tid, dirtypages);
+		}
+	}
+
+	/**
+	 * Go down from the root pointer page towards the leaf page for key f, latching
+	 * every page on the way and returning the id of the leaf, which is not latched.
+	 * With READ_ONLY, pages are latched shared one at a time, and only the latch on the
+	 * leaf's parent is kept; see {@link #searchDown}. With READ_WRITE, for a structure
+	 * change, pages are crabbed down: they are latched exclusive and
+	 * the latches above a safe page are released as soon as it is latched: one that the
+	 * change cannot propagate through, because it will not split (when inserting) or
+	 * fall below minimum occupancy (when deleting). The latches kept are left in path,
+	 * top-down; they are exactly the pages the change may modify. Either way the descent
+	 * starts over if the tree is restructured under it, as by an abort putting pages back.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param f - the field to search for, or null for the left-most (right-most) leaf
+	 * @param reverse - whether to look for the right-most leaf page instead
+	 * @param perm - READ_ONLY to search, READ_WRITE to prepare a structure change
+	 * @param path - receives the ids of the pages still latched
+	 * @return the id of the leaf page
+	 */
+	private BTreePageId descend(TransactionId tid, HashMap<PageId, Page> dirtypages, Field f, boolean reverse,
+			Permissions perm, ArrayDeque<BTreePageId> path) throws DbException {
+		return descend(tid, dirtypages, f, reverse, perm, path, true);
+	}
+
+	/**
+	 * @param forInsert - whether a structure change is a split (or else a merge)
+	 * @see #descend(TransactionId, HashMap, Field, boolean, Permissions, ArrayDeque)
+	 */
+	private BTreePageId descend(TransactionId tid, HashMap<PageId, Page> dirtypages, Field f, boolean reverse,
+			Permissions perm, ArrayDeque<BTreePageId> path, boolean forInsert) throws DbException {
+		if(perm == Permissions.READ_ONLY) {
+			return searchDown(tid, dirtypages, f, reverse, path);
+		}
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		restart:
+		while(true) {
+			long seen = awaitRestored();
+			latches.latch(rootPtrId, true);
+			path.addLast(rootPtrId);
+			BTreePageId pid = rootId(tid, dirtypages);
+			while(pid.pgcateg() == BTreePageId.INTERNAL) {
+				latches.latch(pid, true);
+				path.addLast(pid);
+				BTreeInternalPage page = (BTreeInternalPage) peekPage(tid, dirtypages, pid);
+				if(restructures.get() != seen) {
+					unlatch(path);
+					continue restart;
+				}
+				if(isSafe(page, forInsert)) {
+					while(path.size() > 1) {
+						latches.unlatch(path.removeFirst());
+					}
+				}
+				pid = childFor(page, f, reverse);
+			}
+			if(restructures.get() != seen) {
+				unlatch(path);
+				continue restart;
+			}
+			return pid;
+		}
+	}
+
+	/**
+	 * Search down the tree in the manner of a B-link tree (Lehman and Yao), latching
+	 * one page at a time: the latch on a page is released before the next one is
+	 * latched. A page may therefore have been split since its parent was read, moving
+	 * the entries for f to a new page on its right; the search then follows the right
+	 * sibling pointers for as long as f is past the page's high key. Merges,
+	 * redistributions and aborts leave no such trail, so a search that overlaps one
+	 * starts over.
+	 * Only the latch on the leaf's parent (or the root pointer page, if the root is a
+	 * leaf) is left in path.
+	 *
+	 * @see #descend(TransactionId, HashMap, Field, boolean, Permissions, ArrayDeque)
+	 */
+	private BTreePageId searchDown(TransactionId tid, HashMap<PageId, Page> dirtypages, Field f, boolean reverse,
+			ArrayDeque<BTreePageId> path) throws DbException {
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		restart:
+		while(true) {
+			long seen = awaitRestored();
+			latches.latch(rootPtrId, false);
+			path.addLast(rootPtrId);
+			BTreePageId pid = rootId(tid, dirtypages);
+			while(pid.pgcateg() == BTreePageId.INTERNAL) {
+				unlatch(path);
+				latches.latch(pid, false);
+				path.addLast(pid);
+				BTreeInternalPage page = (BTreeInternalPage) peekPage(tid, dirtypages, pid);
+				if(restructures.get() != seen) {
+					unlatch(path);
+					continue restart;
+				}
+				pid = movesRight(page, f, reverse) ? page.getRightSiblingId() : childFor(page, f, reverse);
+			}
+			if(restructures.get() != seen) {
+				unlatch(path);
+				continue restart;
+			}
+			return pid;
+		}
+	}
+
+	/**
+	 * Return the id of the root page, read from the latched root pointer page.
+	 */
+	private BTreePageId rootId(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException {
+		BTreePageId pid = ((BTreeRootPtrPage) peekPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid))).getRootId();
+		if(pid == null) {
+			// nothing inserted yet: the tree is the single empty leaf
+			pid = new BTreePageId(tableid, 1, BTreePageId.LEAF);
+		}
+		return pid;
+	}
+
+	/**
+	 * Return true if a search for key f (the left-most or, with reverse, right-most leaf
+	 * if f is null) must go on to the right sibling of an internal page, because the page
+	 * has been split since the search read the pointer to it. Pages that have never been
+	 * split since the file was built may have no high key; their keys are unbounded.
+	 */
+	private static boolean movesRight(BTreeInternalPage page, Field f, boolean reverse) {
+		Field high = page.getHighKey();
+		if(page.getRightSiblingId() == null || high == null) {
+			return false;
+		}
+		if(reverse) {
+			return f == null || f.compare(Op.GREATER_THAN_OR_EQ, high);
+		}
+		return f != null && f.compare(Op.GREATER_THAN, high);
+	}
+
+	/**
+	 * Return true if a structure change below an internal page cannot propagate above it:
+	 * inserting an entry will not split it, or deleting one will not leave it below
+	 * minimum occupancy (or, for the root, empty).
+	 */
+	private static boolean isSafe(BTreeInternalPage page, boolean forInsert) {
+		if(forInsert) {
+			return page.getNumEmptySlots() > 0;
+		}
+		if(page.getParentId().pgcateg() == BTreePageId.ROOT_PTR) {
+			return page.getNumEntries() > 1;
+		}
+		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
+		return page.getNumEmptySlots() < maxEmptySlots;
+	}
+
+	/**
+	 * Return the child of an internal page on the way to the left-most leaf page possibly
+	 * containing key f (the left-most leaf if f is null), or with reverse to the right-most one.
+	 */
+	private static BTreePageId childFor(BTreeInternalPage page, Field f, boolean reverse) {
+		BTreeEntry e = null;
+		if(!reverse) {
+			Iterator<BTreeEntry> it = page.iterator();
+			while(it.hasNext()) {
+				e = it.next();
+				if(f == null || e.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
+					return e.getLeftChild();
+				}
+			}
+			return e.getRightChild();
+		}
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		while(it.hasNext()) {
+			e = it.next();
+			if(f == null || e.getKey().compare(Op.LESS_THAN_OR_EQ, f)) {
+				return e.getRightChild();
+			}
+		}
+		return e.getLeftChild();
+	}
+
+	/**
+	 * Release the latches on the pages of a path, bottom-up.
+	 */
+	private void unlatch(ArrayDeque<BTreePageId> path) {
+		while(!path.isEmpty()) {
+			latches.unlatch(path.removeLast());
+		}
 	}
 
 	/**
@@ -366,6 +643,11 @@ public class BTreeFile implements DbFile {
 		ParentPage.insertEntry(bTreeEntry);
 		page.setParentId(ParentPage.getId());
 		newPage.setParentId(ParentPage.getId());
+		// link the new page in to the right, for searches that read the parent before the split
+		newPage.setRightSiblingId(page.getRightSiblingId());
+		newPage.setHighKey(page.getHighKey());
+		page.setRightSiblingId(newPage.getId());
+		page.setHighKey(entry.getKey());
 		updateParentPointers(tid, dirtypages, ParentPage);
 		dirtypages.put(ParentPage.pid, ParentPage);
 		dirtypages.put(page.pid, page);
@@ -445,7 +727,8 @@ public class BTreeFile implements DbFile {
 	private void updateParentPointer(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, BTreePageId child)
 			throws DbException, IOException, TransactionAbortedException {
 
-		BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
+		// the parent pointer only changes under the parent's latch, which is held here
+		BTreePage p = (BTreePage) peekPage(tid, dirtypages, child);
 
 		if(!p.getParentId().equals(pid)) {
 			p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
@@ -502,16 +785,119 @@ public class BTreeFile implements DbFile {
 	 */
 	Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
 			throws DbException, TransactionAbortedException {
+		boolean latched = latches.holdsAny();
+		if(latched && perm == Permissions.READ_WRITE && pid.pgcateg() == BTreePageId.INTERNAL) {
+			// in the middle of a structure change: searches read internal pages without
+			// locking them, so one about to change must be latched as well
+			latches.latch(pid, true);
+		}
 		if(dirtypages.containsKey(pid)) {
 			return dirtypages.get(pid);
 		}
-		else {
-			Page p = Database.getBufferPool().getPage(tid, pid, perm);
-			if(perm == Permissions.READ_WRITE) {
-				dirtypages.put(pid, p);
-			}
-			return p;
+		if(!latched) {
+			return fetchPage(tid, dirtypages, pid, perm, Database.getBufferPool().getPage(tid, pid, perm));
+		}
+		// waiting for a lock while holding latches could deadlock with the lock holder,
+		// so give up instead; the abort undoes whatever the change has done so far
+		Page p = tryGetPage(tid, dirtypages, pid, perm);
+		if(p == null) {
+			throw new TransactionAbortedException();
 		}
+		return p;
+	}
+
+	/**
+	 * Like getPage(), but return null rather than wait if the page's lock is not free.
+	 *
+	 * @see #getPage(TransactionId, HashMap, BTreePageId, Permissions)
+	 */
+	private Page tryGetPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
+			throws DbException {
+		if(dirtypages.containsKey(pid)) {
+			return dirtypages.get(pid);
+		}
+		Page p = Database.getBufferPool().tryGetPage(tid, pid, perm);
+		return p == null ? null : fetchPage(tid, dirtypages, pid, perm, p);
+	}
+
+	/**
+	 * Add a page just fetched with read-write permission to the dirtypages cache.
+	 */
+	private Page fetchPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
+			Page p) throws DbException {
+		if(perm == Permissions.READ_WRITE) {
+			// keep the page resident until the operation hands it back. It may have been
+			// evicted and read in again since p was returned, so take the pool's copy once
+			// pinned: changes to any other would be lost, and hidden from searches meanwhile
+			Database.getBufferPool().pinPage(tid, pid);
+			p = Database.getBufferPool().peekPage(tid, pid);
+			dirtypages.put(pid, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Read a page without locking it, from the dirtypages cache if it is there. The caller
+	 * must hold the page's latch, or that of its parent if only the parent pointer is read.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param pid - the id of the requested page
+	 * @return the requested page
+	 */
+	private Page peekPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid)
+			throws DbException {
+		if(dirtypages.containsKey(pid)) {
+			return dirtypages.get(pid);
+		}
+		return Database.getBufferPool().peekPage(tid, pid);
+	}
+
+	/**
+	 * Release the pins taken by getPage() on the pages of a dirtypages map.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the pages the operation touched
+	 */
+	private void unpinPages(TransactionId tid, HashMap<PageId, Page> dirtypages) {
+		for(PageId pid : dirtypages.keySet()) {
+			Database.getBufferPool().unpinPage(tid, pid);
+		}
+	}
+
+	/**
+	 * Mark the pages an insert or delete changed as dirty before they are
+	 * unpinned. The latches on them are already gone, so a changed page that
+	 * looked clean and unpinned even for a moment could be evicted and read
+	 * back from disk without the change.
+	 *
+	 * @param tid - the transaction id
+	 * @param pages - the pages the operation changed
+	 * @return pages
+	 */
+	private static ArrayList<Page> markDirty(TransactionId tid, ArrayList<Page> pages) {
+		for(Page p : pages) {
+			p.markDirty(true, tid);
+		}
+		return pages;
+	}
+
+	/**
+	 * Move an iterator's pin from the leaf page it was on to the next one.
+	 *
+	 * @param tid - the transaction id
+	 * @param from - the page the iterator leaves, or null
+	 * @param to - the page the iterator moves to, or null
+	 * @return to
+	 */
+	static BTreeLeafPage repin(TransactionId tid, BTreeLeafPage from, BTreeLeafPage to) {
+		if(to != null) {
+			Database.getBufferPool().pinPage(tid, to.getId());
+		}
+		if(from != null) {
+			Database.getBufferPool().unpinPage(tid, from.getId());
+		}
+		return to;
 	}
 
 	/**
@@ -527,22 +913,37 @@ public class BTreeFile implements DbFile {
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		try {
+			return markDirty(tid, insertTuple(tid, dirtypages, t));
+		} finally {
+			unpinPages(tid, dirtypages);
+		}
+	}
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+	private ArrayList<Page> insertTuple(TransactionId tid, HashMap<PageId, Page> dirtypages, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
+		createIfEmpty();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		if(((BTreeRootPtrPage) peekPage(tid, dirtypages, rootPtrId)).getRootId() == null) {
+			// the root has just been created, so set the root pointer to point to it
+			latches.latch(rootPtrId, true);
+			try {
+				BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
+				if(rootPtr.getRootId() == null) {
+					rootPtr.setRootId(new BTreePageId(tableid, 1, BTreePageId.LEAF));
+				}
+			} finally {
+				latches.unlatch(rootPtrId);
+			}
 		}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// find and lock the left-most leaf page corresponding to the key field. As long as
+		// it has room nothing else changes, so no other page needs to stay latched or locked
+		Field key = t.getField(keyField);
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, key, false);
 		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+			leafPage = splitForInsert(tid, dirtypages, key);
 		}
 
 		// insert the tuple into the leaf page
@@ -553,6 +954,91 @@ public class BTreeFile implements DbFile {
 		return dirtyPagesArr;
 	}
 
+	/**
+	 * Make room for a tuple with key field f in a full leaf page, splitting it and the
+	 * internal pages above it as needed. The tree is descended again with exclusive latches,
+	 * kept from the lowest internal page that will not split downwards; those pages, the leaf
+	 * and its right sibling are then locked, without waiting, before anything is changed. If
+	 * one of the locks is not free, the latches are released, the lock is waited for and the
+	 * descent starts over.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param f - the key field of the tuple to be inserted
+	 * @return the leaf page into which the tuple should be inserted
+	 * @see #splitLeafPage(TransactionId, HashMap, BTreeLeafPage, Field)
+	 */
+	private BTreeLeafPage splitForInsert(TransactionId tid, HashMap<PageId, Page> dirtypages, Field f)
+			throws DbException, IOException, TransactionAbortedException {
+		ArrayDeque<BTreePageId> path = new ArrayDeque<BTreePageId>();
+		try {
+			while(true) {
+				BTreePageId leafId = descend(tid, dirtypages, f, false, Permissions.READ_WRITE, path, true);
+				BTreePageId blocked = lockForChange(tid, dirtypages, leafId, path, true);
+				if(blocked == null) {
+					BTreeLeafPage leafPage = (BTreeLeafPage) dirtypages.get(leafId);
+					if(leafPage.getNumEmptySlots() == 0) {
+						leafPage = splitLeafPage(tid, dirtypages, leafPage, f);
+					}
+					return leafPage;
+				}
+				unlatch(path);
+				getPage(tid, dirtypages, blocked, Permissions.READ_WRITE);
+			}
+		} catch(TransactionAbortedException e) {
+			rollBack(tid, dirtypages);
+			throw e;
+		} finally {
+			// the split may have latched new and sibling pages as well
+			latches.unlatchAll();
+		}
+	}
+
+	/**
+	 * Lock, without waiting, the pages a split or merge at a leaf page may change: the leaf,
+	 * its right sibling (and for a merge its left sibling), and the pages latched above it.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param leafId - the id of the leaf page
+	 * @param path - the pages latched above the leaf
+	 * @param forInsert - whether the change is a split (or else a merge)
+	 * @return null if all the locks are held, or else the id of a page whose lock is not free
+	 */
+	private BTreePageId lockForChange(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId leafId,
+			ArrayDeque<BTreePageId> path, boolean forInsert) throws DbException {
+		BTreeLeafPage leaf = (BTreeLeafPage) tryGetPage(tid, dirtypages, leafId, Permissions.READ_WRITE);
+		if(leaf == null) {
+			return leafId;
+		}
+		ArrayList<BTreePageId> pids = new ArrayList<BTreePageId>(path);
+		if(leaf.getRightSiblingId() != null) {
+			pids.add(leaf.getRightSiblingId());
+		}
+		if(!forInsert && leaf.getLeftSiblingId() != null) {
+			pids.add(leaf.getLeftSiblingId());
+		}
+		for(BTreePageId pid : pids) {
+			if(tryGetPage(tid, dirtypages, pid, Permissions.READ_WRITE) == null) {
+				return pid;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Undo the changes of a split or merge that has to abort halfway, while its latches are
+	 * still held, so that no other transaction descends through a half-changed tree. Every
+	 * page locked for writing counts as changed, and the transaction's earlier changes are
+	 * undone as well, since it is aborting anyway; restorePages bumps restructures first.
+	 */
+	private void rollBack(TransactionId tid, HashMap<PageId, Page> dirtypages) {
+		for(Page p : dirtypages.values()) {
+			p.markDirty(true, tid);
+		}
+		Database.getBufferPool().restorePages(tid);
+	}
+
 	/**
 	 * Handle the case when a B+ tree page becomes less than half full due to deletions.
 	 * If one of its siblings has extra tuples/entries, redistribute those tuples/entries.
@@ -570,6 +1056,7 @@ public class BTreeFile implements DbFile {
 	 */
 	private void handleMinOccupancyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePage page)
 			throws DbException, IOException, TransactionAbortedException {
+		restructures.incrementAndGet();
 		BTreePageId parentId = page.getParentId();
 		BTreeEntry leftEntry = null;
 		BTreeEntry rightEntry = null;
@@ -812,6 +1299,7 @@ public class BTreeFile implements DbFile {
 			parentEntry = entry;
 			count--;
 		}
+		leftSibling.setHighKey(parentEntry.getKey());
 		dirtypages.put(page.pid,page);
 		dirtypages.put(leftSibling.pid,leftSibling);
 		dirtypages.put(parent.pid, parent);
@@ -861,9 +1349,8 @@ public class BTreeFile implements DbFile {
 			page.insertEntry(parentEntry);
 			parentEntry = entry;
 			count--;
-			System.out.print(2);
-
 		}
+		page.setHighKey(parentEntry.getKey());
 		dirtypages.put(parent.pid, parent);
 		dirtypages.put(page.pid, page);
 		dirtypages.put(rightSibling.pid, rightSibling);
@@ -938,30 +1425,6 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 
-	protected BTreeLeafPage findReverseLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-									   Field f) throws DbException, TransactionAbortedException {
-		if(pid.pgcateg() == BTreePageId.LEAF){
-			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-		}
-		Iterator<BTreeEntry> btiterator = new BTreeInternalPageReverseIterator((BTreeInternalPage) getPage(tid, dirtypages, pid, perm));
-		while(btiterator.hasNext()){
-			BTreeEntry bt = btiterator.next();
-			if(f == null){
-				return  findLeafPage(tid, dirtypages, bt.getRightChild(), perm, f);
-			}
-			else{
-				if(bt.getKey().compare(Op.GREATER_THAN_OR_EQ, f)){
-					return findLeafPage(tid, dirtypages, bt.getRightChild(), perm, f);
-				}
-				else if(!btiterator.hasNext()){
-					return findLeafPage(tid, dirtypages, bt.getLeftChild(), perm, f);
-				}
-			}
-
-		}
-		return null;
-
-	}
 	protected void mergeInternalPages(TransactionId tid, HashMap<PageId, Page> dirtypages,
 			BTreeInternalPage leftPage, BTreeInternalPage rightPage, BTreeInternalPage parent, BTreeEntry parentEntry)
 					throws DbException, IOException, TransactionAbortedException {
@@ -985,6 +1448,8 @@ public class BTreeFile implements DbFile {
 			leftPage.insertEntry(entry);
 			count--;
 		}
+		leftPage.setRightSiblingId(rightPage.getRightSiblingId());
+		leftPage.setHighKey(rightPage.getHighKey());
 
 		updateParentPointers(tid, dirtypages, leftPage);
 		updateParentPointers(tid, dirtypages, rightPage);
@@ -1054,17 +1519,29 @@ public class BTreeFile implements DbFile {
 	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		try {
+			return markDirty(tid, deleteTuple(tid, dirtypages, t));
+		} finally {
+			unpinPages(tid, dirtypages);
+		}
+	}
+
+	private ArrayList<Page> deleteTuple(TransactionId tid, HashMap<PageId, Page> dirtypages, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
 
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
 				BTreePageId.LEAF);
 		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-		page.deleteTuple(t);
 
-		// if the page is below minimum occupancy, get some tuples from its siblings
-		// or merge with one of the siblings
+		// if the page will be below minimum occupancy, get some tuples from its siblings
+		// or merge with one of the siblings; otherwise no other page changes
 		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-		if(page.getNumEmptySlots() > maxEmptySlots) {
-			handleMinOccupancyPage(tid, dirtypages, page);
+		if(page.getNumEmptySlots() + 1 > maxEmptySlots
+				&& page.getParentId().pgcateg() != BTreePageId.ROOT_PTR) {
+			mergeForDelete(tid, dirtypages, page, t);
+		}
+		else {
+			page.deleteTuple(t);
 		}
 
 		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
@@ -1072,6 +1549,65 @@ public class BTreeFile implements DbFile {
 		return dirtyPagesArr;
 	}
 
+	/**
+	 * Delete a tuple from a locked leaf page that will then be below minimum occupancy, and
+	 * redistribute or merge pages as needed. Like splitForInsert(), the tree is descended
+	 * with exclusive latches, kept from the lowest internal page that will stay above
+	 * minimum occupancy, and the pages that may change are locked without waiting first.
+	 * If the descent by key ends under a different parent, because the key's duplicates
+	 * span several leaves, the tuple is deleted and the page simply left underfull.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the leaf page holding the tuple, locked with read-write permission
+	 * @param t - the tuple to delete
+	 * @see #splitForInsert(TransactionId, HashMap, Field)
+	 * @see #handleMinOccupancyPage(TransactionId, HashMap, BTreePage)
+	 */
+	private void mergeForDelete(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage page, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		ArrayDeque<BTreePageId> path = new ArrayDeque<BTreePageId>();
+		try {
+			while(true) {
+				descend(tid, dirtypages, t.getField(keyField), false, Permissions.READ_WRITE, path, false);
+				if(!page.getParentId().equals(path.peekLast())) {
+					page.deleteTuple(t);
+					return;
+				}
+				BTreePageId blocked = lockForChange(tid, dirtypages, page.getId(), path, false);
+				if(blocked == null) {
+					page.deleteTuple(t);
+					int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+					if(page.getNumEmptySlots() > maxEmptySlots) {
+						handleMinOccupancyPage(tid, dirtypages, page);
+					}
+					return;
+				}
+				unlatch(path);
+				getPage(tid, dirtypages, blocked, Permissions.READ_WRITE);
+			}
+		} catch(TransactionAbortedException e) {
+			rollBack(tid, dirtypages);
+			throw e;
+		} finally {
+			// the merge may have latched sibling pages as well
+			latches.unlatchAll();
+		}
+	}
+
+	/**
+	 * Create the root pointer page and the root page if the file is still empty.
+	 */
+	private void createIfEmpty() throws IOException {
+		synchronized(this) {
+			if(f.length() == 0) {
+				// create the root pointer page and the root page
+				store.append(BTreeRootPtrPage.createEmptyPageData());
+				store.append(BTreeLeafPage.createEmptyPageData());
+			}
+		}
+	}
+
 	/**
 	 * Get a read lock on the root pointer page. Create the root pointer page and root page
 	 * if necessary.
@@ -1084,18 +1620,7 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
-		synchronized(this) {
-			if(f.length() == 0) {
-				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
-			}
-		}
+		createIfEmpty();
 
 		// get a read lock on the root pointer page
 		return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
@@ -1115,49 +1640,37 @@ public class BTreeFile implements DbFile {
 	 */
 	protected int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages)
 			throws DbException, IOException, TransactionAbortedException {
-		// get a read lock on the root pointer page and use it to locate the first header page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+		// read the root pointer and header pages without locking them: a lock held to
+		// commit would block other transactions' root splits, and the caller may hold
+		// latches, so it must not wait for one either
+		createIfEmpty();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) peekPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid));
 		BTreePageId headerId = rootPtr.getHeaderId();
-		int emptyPageNo = 0;
-
-		if(headerId != null) {
-			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-			int headerPageCount = 0;
-			// try to find a header page with an empty slot
-			while(headerPage != null && headerPage.getEmptySlot() == -1) {
-				headerId = headerPage.getNextPageId();
-				if(headerId != null) {
-					headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-					headerPageCount++;
-				}
-				else {
-					headerPage = null;
+		int headerPageCount = 0;
+		// find the first header page with an empty slot
+		while(headerId != null) {
+			BTreeHeaderPage headerPage = (BTreeHeaderPage) peekPage(tid, dirtypages, headerId);
+			if(headerPage.getEmptySlot() != -1) {
+				// take the slot only if the page can be locked now, or else grow the file
+				headerPage = (BTreeHeaderPage) tryGetPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+				int emptySlot = headerPage == null ? -1 : headerPage.getEmptySlot();
+				if(emptySlot != -1) {
+					headerPage.markSlotUsed(emptySlot, true);
+					return headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
 				}
+				break;
 			}
-
-			// if headerPage is not null, it must have an empty slot
-			if(headerPage != null) {
-				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-				int emptySlot = headerPage.getEmptySlot();
-				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
-			}
+			headerId = headerPage.getNextPageId();
+			headerPageCount++;
 		}
 
-		// at this point if headerId is null, either there are no header pages 
-		// or there are no free slots
-		if(headerId == null) {
-			synchronized(this) {
-				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
-			}
+		// there are no header pages, or no free slot to be had
+		int emptyPageNo;
+		synchronized(this) {
+			// create the new page
+			store.append(BTreeInternalPage.createEmptyPageData());
+			emptyPageNo = numPages();
 		}
-
 		return emptyPageNo;
 	}
 
@@ -1183,15 +1696,15 @@ public class BTreeFile implements DbFile {
 		int emptyPageNo = getEmptyPageNo(tid, dirtypages);
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
-		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
-
-		// make sure the page is not in the buffer pool	or in the local cache		
+		// make sure the page is not in the buffer pool	or in the local cache,
+		// and that no older image of it is still waiting to be written
 		Database.getBufferPool().discardPage(newPageId);
-		dirtypages.remove(newPageId);
+		if(dirtypages.remove(newPageId) != null) {
+			Database.getBufferPool().unpinPage(tid, newPageId);
+		}
+
+		// write empty page to disk
+		store.write(pageOffset(newPageId), BTreePage.createEmptyPageData());
 
 		return getPage(tid, dirtypages, newPageId, Permissions.READ_WRITE);
 	}
@@ -1215,10 +1728,10 @@ public class BTreeFile implements DbFile {
 			while (it == null && curp != null) {
 				BTreePageId nextp = curp.getLeftSiblingId();
 				if (nextp == null) {
-					curp = null;
+					curp = repin(tid, curp, null);
 				} else {
-					curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-							nextp, Permissions.READ_ONLY);
+					curp = repin(tid, curp, (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+							nextp, Permissions.READ_ONLY));
 					it = curp.reverseIterator();
 					if (!it.hasNext())
 						it = null;
@@ -1232,10 +1745,7 @@ public class BTreeFile implements DbFile {
 
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
-			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-					tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-			BTreePageId root = rootPtr.getRootId();
-			curp = f.findReverseLeafPage(tid, new HashMap<PageId, Page>(), root, Permissions.READ_ONLY, null);
+			curp = repin(tid, curp, f.findLeafPage(tid, Permissions.READ_ONLY, null, true));
 			it = curp.reverseIterator();
 
 
@@ -1246,6 +1756,13 @@ public class BTreeFile implements DbFile {
 			close();
 			open();
 		}
+
+		@Override
+		public void close() {
+			super.close();
+			it = null;
+			curp = repin(tid, curp, null);
+		}
 	}
 
 	/**
@@ -1388,10 +1905,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curp = BTreeFile.repin(tid, curp, f.findLeafPage(tid, Permissions.READ_ONLY, null, false));
 		it = curp.iterator();
 	}
 
@@ -1409,11 +1923,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
 			if(nextp == null) {
-				curp = null;
+				curp = BTreeFile.repin(tid, curp, null);
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = BTreeFile.repin(tid, curp, (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						nextp, Permissions.READ_ONLY));
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1439,7 +1953,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
-		curp = null;
+		curp = BTreeFile.repin(tid, curp, null);
 	}
 }
 
@@ -1473,16 +1987,15 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
+		BTreeLeafPage leaf;
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			leaf = f.findLeafPage(tid, Permissions.READ_ONLY, ipred.getField(), false);
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			leaf = f.findLeafPage(tid, Permissions.READ_ONLY, null, false);
 		}
+		curp = BTreeFile.repin(tid, curp, leaf);
 		it = curp.iterator();
 	}
 
@@ -1521,8 +2034,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = BTreeFile.repin(tid, curp, (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						nextp, Permissions.READ_ONLY));
 				it = curp.iterator();
 			}
 		}
@@ -1544,5 +2057,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		curp = BTreeFile.repin(tid, curp, null);
 	}
 }
@@ -229,8 +229,9 @@ public class BTreeFileEncoder {
 		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+		// pointerbytes: one extra child pointer, parent pointer, child page category,
+		// right sibling pointer, high key flag and high key
+		int internalpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + 1 + keyType.getLen(); 
 		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		ArrayList<ArrayList<BTreeEntry>> entries = new ArrayList<ArrayList<BTreeEntry>>();
@@ -625,8 +626,9 @@ public class BTreeFileEncoder {
 			Type keyType, int childPageCategory)
 					throws IOException {
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+		// pointerbytes: one extra child pointer, parent pointer, child page category,
+		// right sibling pointer, high key flag and high key
+		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + 1 + keyType.getLen(); 
 		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 
 		//  per entry, we need one bit; there are nentries per page, so we need
@@ -650,6 +652,10 @@ public class BTreeFileEncoder {
 
 		dos.writeInt(0); // parent pointer
 		dos.writeByte((byte) childPageCategory);
+		dos.writeInt(0); // right sibling pointer
+		dos.writeByte(0); // no high key
+		for (int j=0; j<keyType.getLen(); j++)
+			dos.writeByte(0);
 
 		int i = 0;
 		byte headerbyte = 0;
@@ -716,6 +722,7 @@ public class BTreeFileEncoder {
 		dos.writeByte((byte) rootCategory); // root page category
 
 		dos.writeInt(header); // header pointer
+		dos.writeInt(BTreeRootPtrPage.FORMAT); // format marker
 
 		return baos.toByteArray();
 	}
@@ -20,6 +20,8 @@ public class BTreeInternalPage extends BTreePage {
 	private final int numSlots;
 	
 	private int childCategory; // either leaf or internal
+	private int rightSibling; // the next internal page on this level, or 0
+	private Field highKey; // the key separating this page from its right sibling, or null
 
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
@@ -36,6 +38,10 @@ public class BTreeInternalPage extends BTreePage {
 			assert(prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 		}
 
+		if (null != highKey) {
+			assert(null != upperBound && highKey.equals(upperBound));
+		}
+
 		if (checkOccupancy && depth > 0) {
 			assert (getNumEntries() >= getMaxEntries() / 2);
 		}
@@ -46,8 +52,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * The format of a BTreeInternalPage is a set of header bytes indicating
 	 * the slots of the page that are in use, some number of entry slots, and extra
 	 * bytes for the parent pointer, one extra child pointer (a node with m entries 
-	 * has m+1 pointers to children), and the category of all child pages (either 
-	 * leaf or internal).
+	 * has m+1 pointers to children), the category of all child pages (either 
+	 * leaf or internal), and the B-link right sibling pointer and high key.
 	 *  Specifically, the number of entries is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
@@ -81,6 +87,16 @@ public class BTreeInternalPage extends BTreePage {
 		// read the child page category
 		childCategory = (int) dis.readByte();
 
+		// read the right sibling pointer and the high key, if there is one
+		rightSibling = dis.readInt();
+		boolean hasHighKey = dis.readByte() != 0;
+		try {
+			Field f = td.getFieldType(keyField).parse(dis);
+			highKey = hasHighKey ? f : null;
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+		}
+
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
 		for (int i=0; i<header.length; i++)
@@ -118,8 +134,9 @@ public class BTreeInternalPage extends BTreePage {
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
-		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
+		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header,
+		// one right sibling pointer, 1 byte for the high key flag and the high key itself
+		int extraBits = 3 * INDEX_SIZE * 8 + 8 + 8 + keySize * 8 + 1; 
 		int entriesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
 		return entriesPerPage;
 	}
@@ -252,6 +269,21 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		// write out the right sibling pointer and the high key
+		try {
+			dos.writeInt(rightSibling);
+			dos.writeByte(highKey == null ? 0 : 1);
+			if (highKey == null) {
+				dos.write(new byte[td.getFieldType(keyField).getLen()]);
+			}
+			else {
+				highKey.serialize(dos);
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
 		// create the header of the page
 		for (int i=0; i<header.length; i++) {
 			try {
@@ -315,7 +347,8 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
+		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + INDEX_SIZE + 1 + 
+				td.getFieldType(keyField).getLen() + header.length + 
 				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
@@ -545,6 +578,56 @@ public class BTreeInternalPage extends BTreePage {
 		e.setRecordId(new RecordId(pid, goodSlot));
 	}
 
+	/**
+	 * Get the id of the right sibling of this page, the next internal page
+	 * on the same level of the tree
+	 * @return the id of the right sibling, or null if there is none
+	 */
+	public BTreePageId getRightSiblingId() {
+		if(rightSibling == 0) {
+			return null;
+		}
+		return new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.INTERNAL);
+	}
+
+	/**
+	 * Set the right sibling id of this page
+	 * @param id - the new right sibling id
+	 * @throws DbException if the id is not valid
+	 */
+	public void setRightSiblingId(BTreePageId id) throws DbException {
+		if(id == null) {
+			rightSibling = 0;
+		}
+		else {
+			if(id.getTableId() != pid.getTableId()) {
+				throw new DbException("table id mismatch in setRightSiblingId");
+			}
+			if(id.pgcateg() != BTreePageId.INTERNAL) {
+				throw new DbException("rightSibling must be an internal node");
+			}
+			rightSibling = id.getPageNumber();
+		}
+	}
+
+	/**
+	 * Get the high key of this page: the key in the parent separating this
+	 * page from its right sibling. Every key under this page is at most the
+	 * high key, so a search for a larger key must move right.
+	 * @return the high key, or null if the keys under this page are unbounded above
+	 */
+	public Field getHighKey() {
+		return highKey;
+	}
+
+	/**
+	 * Set the high key of this page
+	 * @param key - the new high key, or null if there is no upper bound
+	 */
+	public void setHighKey(Field key) {
+		highKey = key;
+	}
+
 	/**
 	 * Move an entry from one slot to another slot, and update the corresponding
 	 * headers
@@ -761,8 +844,17 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null) {
+					continue;
+				}
+				// the left child is in the nearest used slot below, which need not
+				// be the next one once entries have been deleted from the middle
+				int left = entry - 1;
+				while(left > 0 && !p.isSlotUsed(left)) {
+					left--;
+				}
+				BTreePageId childId = p.getChildId(left);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
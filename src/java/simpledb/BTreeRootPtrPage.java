@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * BTreeRootPtrPage stores the pointer to the root node used in the B+ tree and
@@ -10,7 +11,14 @@ import java.io.*;
  */
 public class BTreeRootPtrPage implements Page {
 	// size of this page
-	public final static int PAGE_SIZE = 9;
+	public final static int PAGE_SIZE = 13;
+
+	/**
+	 * Marks a file whose internal pages carry right links and high keys (see
+	 * {@link BTreeInternalPage}). Files written before these were added have no
+	 * marker and are rejected rather than misread.
+	 */
+	public final static int FORMAT = 0x53424c02;
 
 	private boolean dirty = false;
 	private TransactionId dirtier = null;
@@ -31,7 +39,10 @@ public class BTreeRootPtrPage implements Page {
 	 * The format of an BTreeRootPtrPage is an integer for the page number
 	 * of the root node, followed by a byte to encode the category of the root page
 	 * (either leaf or internal), followed by an integer for the page number
-	 * of the first header page
+	 * of the first header page, followed by the integer {@link #FORMAT}
+	 *
+	 * @throws IOException if the data does not end with FORMAT, which means
+	 *   the file was written in an older, incompatible format
 	 */
 	public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
@@ -43,6 +54,12 @@ public class BTreeRootPtrPage implements Page {
 
 		// read in the header pointer
 		header = dis.readInt();
+
+		int format = dis.readInt();
+		if(format != FORMAT) {
+			throw new IOException("B+ tree file of table " + id.getTableId()
+					+ " is in an unsupported format; rebuild it from its data");
+		}
 		
 		setBeforeImage();
 	}
@@ -103,6 +120,13 @@ public class BTreeRootPtrPage implements Page {
 			e.printStackTrace();
 		}
 
+		// write out the format marker
+		try{
+			dos.writeInt(FORMAT);
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+
 		try {
 			dos.flush();
 		}catch(IOException e) {
@@ -123,7 +147,9 @@ public class BTreeRootPtrPage implements Page {
 	 */
 	public static byte[] createEmptyPageData() {
 		int len = PAGE_SIZE;
-		return new byte[len]; //all 0
+		byte[] data = new byte[len]; // no root or header page
+		ByteBuffer.wrap(data).putInt(len - 4, FORMAT);
+		return data;
 	}
 
 	public void markDirty(boolean dirty, TransactionId tid){
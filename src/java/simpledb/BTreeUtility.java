@@ -323,8 +323,9 @@ public class BTreeUtility {
 	 */
 	public static int getNumEntriesPerPage() {
 		int nentrybytes = Type.INT_TYPE.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+		// pointerbytes: one extra child pointer, parent pointer, child page category,
+		// right sibling pointer, high key flag and high key
+		int internalpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE + 1 + 1 + Type.INT_TYPE.getLen(); 
 		int entriesPerPage = (BufferPool.getPageSize() * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
 		return entriesPerPage;
 	}
@@ -682,6 +683,9 @@ public class BTreeUtility {
 		}
 
 		public void run() {
+			// rerun() may start over with a new transaction while this thread is still
+			// aborting the old one, so only ever use the one this run started with
+			TransactionId tid = this.tid;
 			try {
 				Tuple t = BTreeUtility.getBTreeTuple(tupdata);
 				Database.getBufferPool().insertTuple(tid, bf.getId(), t);
@@ -754,7 +758,6 @@ public class BTreeUtility {
 		TransactionId tid;
 		BTreeFile bf;
 		BlockingQueue<ArrayList<Integer>> insertedTuples;
-		ArrayList<Integer> tuple;
 		boolean success;
 		Exception error;
 		Object slock;
@@ -769,6 +772,10 @@ public class BTreeUtility {
 		}
 
 		public void run() {
+			// rerun() may start over with a new transaction while this thread is still
+			// aborting the old one, so only ever use the one this run started with
+			TransactionId tid = this.tid;
+			ArrayList<Integer> tuple = null;
 			try {
 				tuple = insertedTuples.take();
 				if(bf.getTupleDesc().numFields() != tuple.size()) {
@@ -1,12 +1,18 @@
 package simpledb;
 
-import java.awt.*;
 import java.io.*;
 
-import java.lang.reflect.Array;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -16,6 +22,46 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is split into shards by PageId hash. Each shard has its
+ * own latch and replacement state, so lookups, evictions and flushes on
+ * different shards proceed in parallel; a small pool gets fewer shards so
+ * each keeps enough pages for its replacement policy to work with (see
+ * {@link #MIN_SHARD_PAGES}). The numPages limit is global and
+ * is enforced with a shared count of resident pages. It can be changed
+ * while the pool is in use with {@link #setNumPages} or {@link #autoSize};
+ * a smaller pool is reached gradually, a few evictions at a time.
+ * <p>
+ * Optionally the pool also owns an off-heap arena of page frames (see
+ * {@link PageFrameArena}). Clean pages evicted from the page table are
+ * kept there as raw bytes and rebuilt on the next miss, so a large cache
+ * costs little Java heap. Set the {@value #OFF_HEAP_PAGES_PROPERTY} system
+ * property, or use the four-argument constructor, to enable it.
+ * <p>
+ * A commit logs its pages' updates, forces the log, and then writes the
+ * committed images through to the data files with a {@link PageCleaner}
+ * and forces them, since recovery cannot yet redo updates from the log.
+ * <p>
+ * Scans can ask for pages ahead of time with {@link #prefetchPage}; a
+ * small pool of I/O threads then loads them while the scan works through
+ * the pages it already has. Only one load of a page is ever in flight, so
+ * a scan that catches up with its read-ahead waits for it rather than
+ * reading the page again.
+ * <p>
+ * Large scans can pass a {@link BufferRing} to getPage. Pages the scan
+ * loads then stay owned by the ring and are dropped again once the ring
+ * wraps around, so the scan reuses a handful of frames rather than
+ * pushing the rest of the working set out of the pool.
+ * <p>
+ * With {@link #enableWarmStart} the pool saves the ids of its resident
+ * pages, hottest first, when it shuts down, and loads the hottest of them
+ * again in the background after the next start.
+ * <p>
+ * A read-only transaction can instead read from a snapshot: after
+ * {@link #beginSnapshot} it sees the database as of that moment, takes no
+ * locks, and so neither waits for writers nor holds them up. Committed
+ * page images that writers replace while snapshots are running are kept
+ * in a {@link PageVersions} store until no snapshot needs them.
  *
  * @Threadsafe, all fields are final
  */
@@ -23,36 +69,323 @@ public class BufferPool {
     /** Bytes per page, including header. */
     private static final int DEFAULT_PAGE_SIZE = 4096;
 
-    private ConcurrentHashMap<PageId, Page>map;
+    private final Shard[] shards;
+
+    // pages resident in (or reserved for) all shards together
+    private final AtomicInteger residentPages;
+
+    // target size, as set by the constructor or setNumPages
+    private volatile int numPages;
+
+    // pages that may be resident right now; above numPages while shrinking
+    private volatile int frameLimit;
+
+    private final Object resizeLock = new Object();
+    // a shrinkStep is scheduled; guarded by resizeLock
+    private boolean shrinking;
+
+    private final int offHeapPages;
+
+    private final LockManager lockManager;
 
-    private int numPages;
+    private final PageCleaner cleaner;
 
-    private LockManager lockManager;
+    private final BufferPoolStats stats;
 
-    private ConcurrentHashMap<PageId, Page> usedmap;
+    // pages being read in, by getPage or by read-ahead
+    private final ConcurrentHashMap<PageId, CompletableFuture<Page>> loading;
 
+    private final ExecutorService readAheadPool;
+
+    private volatile int readAheadPages;
+    private volatile int requestedReadAheadPages;
+
+    // shrinks the pool in the background
+    private final ScheduledExecutorService maintenance;
+
+    // pins held by each transaction, so they can be dropped when it ends
+    private final ConcurrentHashMap<TransactionId, HashMap<PageId, Integer>> pinsByTid;
+
+    // where resident page ids are saved on shutdown, or null
+    private volatile File warmFile;
+    private Thread warmFileHook;
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
 
     private ConcurrentHashMap<TransactionId, Long>Transactions;
 
+    // snapshot time of each read-only snapshot transaction
+    private final ConcurrentHashMap<TransactionId, Long> snapshots;
+    // undo actions of each transaction for changes made outside the pool
+    private final ConcurrentHashMap<TransactionId, List<FileAction>> undoActions;
+    // actions run once each transaction has committed
+    private final ConcurrentHashMap<TransactionId, List<FileAction>> commitActions;
+    private final PageVersions versions;
+
     /** Default number of pages passed to the constructor. This is used by
      other classes. BufferPool should use the numPages argument to the
      constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** System property giving the number of off-heap frames of pools built
+     with {@link #BufferPool(int)}; unset or 0 disables the arena. */
+    public static final String OFF_HEAP_PAGES_PROPERTY = "simpledb.offHeapPages";
+
+    /** Default number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    /** System property giving the share of the maximum heap size that the
+     pool of the static Database is sized to; see {@link #autoSize}. */
+    public static final String MEMORY_FRACTION_PROPERTY = "simpledb.bufferPoolMemoryFraction";
+
+    /** Heap used by a resident page, in pages: its data plus its before image. */
+    private static final int HEAP_PAGES_PER_PAGE = 2;
+
+    /** Pages evicted per step when shrinking, and the pause between steps. */
+    private static final int SHRINK_STEP_PAGES = 16;
+    private static final long SHRINK_RETRY_MS = 50;
+
+    /** Name of the file, next to the catalog, that resident page ids are
+     saved to between runs. */
+    public static final String WARM_FILE_NAME = "bufferpool.warm";
+
+    /** Longest run of adjacent pages warm-up reads at once. */
+    private static final int WARM_RUN_PAGES = 64;
+
+    /** Threads loading read-ahead pages. */
+    private static final int READ_AHEAD_THREADS = 2;
+
+    /** Default number of page table shards: two per available processor,
+     rounded up to a power of two. */
+    public static final int DEFAULT_SHARDS =
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1);
+
+    /** Fewest pages a shard is given. Each shard runs its own replacement
+     policy, so a shard with only a few pages cannot keep hot pages apart
+     from scanned ones; smaller pools get fewer shards instead. */
+    public static final int MIN_SHARD_PAGES = 64;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using
+     * scan-resistant 2Q replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
+     * @see TwoQueueReplacementPolicy
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_SHARDS, TwoQueueReplacementPolicy::new,
+                Integer.getInteger(OFF_HEAP_PAGES_PROPERTY, 0));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks
+     * eviction victims with the given kind of policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policyFactory creates the replacement policy of each shard
+     */
+    public BufferPool(int numPages, Supplier<ReplacementPolicy> policyFactory) {
+        this(numPages, DEFAULT_SHARDS, policyFactory);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in numShards
+     * independently latched shards, or fewer if the pool is too small to
+     * give each shard {@value #MIN_SHARD_PAGES} pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numShards most page table shards to use
+     * @param policyFactory creates the replacement policy of each shard
+     */
+    public BufferPool(int numPages, int numShards, Supplier<ReplacementPolicy> policyFactory) {
+        this(numPages, numShards, policyFactory, 0);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages on the heap and
+     * up to offHeapPages more clean pages in off-heap frames.
+     *
+     * @param numPages maximum number of pages in the page table.
+     * @param numShards most page table shards to use; see {@link
+     *   #MIN_SHARD_PAGES}
+     * @param policyFactory creates the replacement policy of each shard
+     * @param offHeapPages number of off-heap page frames, 0 for none
+     */
+    public BufferPool(int numPages, int numShards, Supplier<ReplacementPolicy> policyFactory,
+                      int offHeapPages) {
         // some code goes here
         this.numPages = numPages;
-        map = new ConcurrentHashMap<>();
-        usedmap = new ConcurrentHashMap<>();
+        this.frameLimit = numPages;
+        numShards = Math.max(1, Math.min(numShards, numPages / MIN_SHARD_PAGES));
+        shards = new Shard[numShards];
+        int framesPerShard = (offHeapPages + numShards - 1) / numShards;
+        this.offHeapPages = framesPerShard * numShards;
+        for (int i = 0; i < numShards; i++) {
+            PageFrameArena arena = framesPerShard > 0
+                    ? new PageFrameArena(framesPerShard, pageSize) : null;
+            shards[i] = new Shard(policyFactory.get(), arena);
+        }
+        residentPages = new AtomicInteger(0);
         Transactions = new ConcurrentHashMap<>();
-        lockManager = new LockManager();
+        snapshots = new ConcurrentHashMap<>();
+        undoActions = new ConcurrentHashMap<>();
+        commitActions = new ConcurrentHashMap<>();
+        versions = new PageVersions();
+        stats = new BufferPoolStats(this);
+        // transactions that have not fetched a page yet count as youngest
+        lockManager = new LockManager(stats, t -> Transactions.getOrDefault(t, Long.MAX_VALUE));
+        cleaner = new PageCleaner(stats);
+        loading = new ConcurrentHashMap<>();
+        pinsByTid = new ConcurrentHashMap<>();
+        readAheadPool = Executors.newFixedThreadPool(READ_AHEAD_THREADS, r -> {
+            Thread t = new Thread(r, "simpledb-read-ahead");
+            t.setDaemon(true);
+            return t;
+        });
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "simpledb-pool-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        setReadAheadPages(DEFAULT_READ_AHEAD_PAGES);
+    }
+
+    /** Return the number of pages this pool is sized to hold. */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Change the number of pages the pool holds, keeping the cached pages
+     * and all locks. Growing takes effect at once. When shrinking, a
+     * background task evicts the surplus a few pages at a time, so the
+     * pool never stalls on one big eviction; pages that are dirty or
+     * pinned are waited for.
+     *
+     * @param numPages new maximum number of pages in this buffer pool
+     */
+    public void setNumPages(int numPages) {
+        if (numPages < 1) {
+            throw new IllegalArgumentException("a buffer pool needs at least one page");
+        }
+        boolean shrink = false;
+        synchronized (resizeLock) {
+            this.numPages = numPages;
+            if (frameLimit <= numPages) {
+                frameLimit = numPages;
+            } else if (!shrinking) {
+                shrinking = true;
+                shrink = true;
+            }
+        }
+        setReadAheadPages(requestedReadAheadPages);
+        if (shrink) {
+            scheduleShrink(0);
+        }
+    }
+
+    /**
+     * Size the pool to use about the given share of the JVM's maximum heap
+     * ({@link Runtime#maxMemory()}), counting each page twice for its
+     * before image.
+     *
+     * @param fraction share of the maximum heap, between 0 and 1
+     * @return the new number of pages
+     */
+    public int autoSize(double fraction) {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("fraction must be in (0, 1]: " + fraction);
+        }
+        long bytes = (long) (Runtime.getRuntime().maxMemory() * fraction);
+        int pages = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1, bytes / ((long) HEAP_PAGES_PER_PAGE * pageSize)));
+        setNumPages(pages);
+        return pages;
+    }
+
+    private void scheduleShrink(long delayMs) {
+        try {
+            maintenance.schedule(this::shrinkStep, delayMs, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // the pool has been shut down
+        }
+    }
+
+    /**
+     * Lower frameLimit towards numPages by up to SHRINK_STEP_PAGES pages,
+     * evicting as needed, then schedule the next step. Loads that happen
+     * in between evict against frameLimit, so they only ever make room
+     * for themselves.
+     */
+    private void shrinkStep() {
+        int next = 0;
+        for (int i = 0; i < SHRINK_STEP_PAGES; i++) {
+            synchronized (resizeLock) {
+                if (frameLimit <= numPages) {
+                    shrinking = false;
+                    return;
+                }
+                if (residentPages.get() < frameLimit) {
+                    frameLimit--;
+                    continue;
+                }
+            }
+            boolean evicted;
+            try {
+                evicted = evictPage(shards[next++ % shards.length]);
+            } catch (DbException e) {
+                evicted = false;
+            }
+            if (!evicted) {
+                // everything left is dirty or pinned; try again later
+                scheduleShrink(SHRINK_RETRY_MS);
+                return;
+            }
+        }
+        scheduleShrink(0);
+    }
+
+    /** Return how many pages sequential scans read ahead. */
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /**
+     * Set how many pages sequential scans read ahead; 0 turns read-ahead
+     * off. Read-ahead never uses more than a quarter of the pool; the
+     * requested value is applied again when the pool is resized.
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        this.requestedReadAheadPages = readAheadPages;
+        this.readAheadPages = Math.max(0, Math.min(readAheadPages, numPages / 4));
+    }
+
+    /**
+     * Return the number of pages this pool can cache, counting off-heap
+     * frames. Scans of tables larger than this are better off with a
+     * {@link BufferRing}.
+     */
+    public int getCapacity() {
+        return numPages + offHeapPages;
+    }
+
+    /** Return the counters describing this buffer pool. */
+    public BufferPoolStats getStats() {
+        return stats;
+    }
+
+    /** Return the number of pages currently resident. */
+    int getNumResidentPages() {
+        return residentPages.get();
+    }
+
+    /** Return the number of resident pages that are dirty. */
+    int getNumDirtyPages() {
+        int dirty = 0;
+        for (Shard shard : shards) {
+            dirty += shard.numDirty();
+        }
+        return dirty;
     }
 
     public static int getPageSize() {
@@ -86,35 +419,544 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, as part
+     * of a bulk read. If the page has to be read in it is loaded into the
+     * given ring, and dropped from the pool again when the ring wraps
+     * around, unless someone else has referenced it in the meantime.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the bulk read, or null for a normal access
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
         // some code goes here
-        if(!Transactions.containsKey(tid)){
-            Transactions.put(tid, System.currentTimeMillis());
+        Long snapshot = snapshots.get(tid);
+        if (snapshot != null) {
+            return snapshotPage(pid, perm, snapshot, ring);
+        }
+        Transactions.putIfAbsent(tid, tid.getStartTime());
+        // waits until granted; deadlocks are broken by the lock manager
+        lockManager.acquire(tid, pid, perm);
+
+        return load(shardFor(pid), pid, true, ring);
+    }
+
+    /**
+     * Retrieve a page like {@link #getPage}, but only if its lock can be
+     * granted without waiting.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return the page, or null if another transaction holds or waits for
+     *   a conflicting lock
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm)
+            throws DbException {
+        Long snapshot = snapshots.get(tid);
+        if (snapshot != null) {
+            return snapshotPage(pid, perm, snapshot, null);
+        }
+        Transactions.putIfAbsent(tid, tid.getStartTime());
+        if (!lockManager.tryAcquire(tid, pid, perm)) {
+            return null;
+        }
+        return load(shardFor(pid), pid, true, null);
+    }
+
+    /**
+     * Retrieve a page without locking it. The caller must keep the page
+     * from changing underneath it some other way, as B+ trees do for their
+     * internal pages with {@link PageLatches}. A snapshot transaction gets
+     * the page as of its snapshot.
+     *
+     * @param tid the ID of the transaction reading the page
+     * @param pid the ID of the requested page
+     */
+    public Page peekPage(TransactionId tid, PageId pid) throws DbException {
+        Long snapshot = snapshots.get(tid);
+        if (snapshot != null) {
+            return snapshotPage(pid, Permissions.READ_ONLY, snapshot, null);
+        }
+        return load(shardFor(pid), pid, true, null);
+    }
+
+    /**
+     * Retrieve a page for row-level access. Only intention locks are taken
+     * on the page and its table (IS for READ_ONLY, IX for READ_WRITE), so
+     * other transactions can work on other rows of the page at the same
+     * time; the caller must lock every row it reads or writes with
+     * {@link #lockRecord} before touching it.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm whether rows of the page will be read or written
+     * @param ring the ring of the bulk read, or null for a normal access
+     */
+    public Page getPageForRows(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        Long snapshot = snapshots.get(tid);
+        if (snapshot != null) {
+            return snapshotPage(pid, perm, snapshot, ring);
+        }
+        Transactions.putIfAbsent(tid, tid.getStartTime());
+        lockManager.acquireIntention(tid, pid, perm);
+
+        return load(shardFor(pid), pid, true, ring);
+    }
+
+    /**
+     * Lock a row: shared for READ_ONLY, exclusive for READ_WRITE, with
+     * intention locks on its page and table. Waits until granted.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param rid the row to lock
+     * @param perm the requested permissions on the row
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        if (snapshots.containsKey(tid)) {
+            // snapshot reads need no locks, and snapshots cannot write
+            return;
+        }
+        Transactions.putIfAbsent(tid, tid.getStartTime());
+        lockManager.acquire(tid, rid, perm);
+    }
+
+    /**
+     * Lock a whole table: shared for READ_ONLY, exclusive for READ_WRITE.
+     * Waits until granted.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm the requested permissions on the table
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        if (snapshots.containsKey(tid)) {
+            return;
+        }
+        Transactions.putIfAbsent(tid, tid.getStartTime());
+        lockManager.acquireTable(tid, tableId, perm);
+    }
+
+    /**
+     * Follows up on a change a transaction made to a file without the
+     * buffer pool, once the transaction ends.
+     */
+    public interface FileAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Register an action undoing a change tid made to a file directly,
+     * rather than through pages of the pool. If tid aborts, its actions are
+     * run, latest first, after its pages have been restored; if it commits
+     * they are dropped. The change must be on disk before tid commits.
+     */
+    public void onAbort(TransactionId tid, FileAction action) {
+        undoActions.computeIfAbsent(tid, t -> Collections.synchronizedList(new ArrayList<>())).add(action);
+    }
+
+    /**
+     * Register an action to run once tid has committed, after its pages
+     * have been written, such as publishing a change tid made directly to
+     * a file. If tid aborts, the action is dropped.
+     */
+    public void onCommit(TransactionId tid, FileAction action) {
+        commitActions.computeIfAbsent(tid, t -> Collections.synchronizedList(new ArrayList<>())).add(action);
+    }
+
+    /**
+     * Make a transaction a read-only snapshot reader. From now on getPage
+     * returns, for this transaction, each page as it was committed at this
+     * moment, and takes no locks; asking for READ_WRITE fails. The snapshot
+     * ends with {@link #transactionComplete}.
+     *
+     * @param tid a transaction that has not fetched or locked any page yet
+     * @throws IllegalStateException if the transaction already holds locks
+     */
+    public void beginSnapshot(TransactionId tid) {
+        if (Transactions.containsKey(tid)) {
+            throw new IllegalStateException("transaction " + tid + " already holds locks");
+        }
+        snapshots.computeIfAbsent(tid, t -> versions.beginSnapshot());
+    }
+
+    /** Return true if the transaction reads from a snapshot. */
+    public boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /**
+     * Return the committed image of a page as of snapshot s. The current
+     * committed image is the before image of the resident page; older
+     * ones come from the version store.
+     */
+    private Page snapshotPage(PageId pid, Permissions perm, long s, BufferRing ring)
+            throws DbException {
+        if (perm == Permissions.READ_WRITE) {
+            throw new DbException("read-only snapshot cannot write " + pid);
         }
-        long timeout = new Random().nextInt(2000) + 1000;
-        boolean result = lockManager.grantLock(tid, pid, perm);
-        long starttime = System.currentTimeMillis();
-        while(!result){
-            long now = System.currentTimeMillis();
-            if(now - starttime >timeout){
-                throw new TransactionAbortedException();
+        Page current = load(shardFor(pid), pid, true, ring).getBeforeImage();
+        Page older = versions.imageAt(pid, s);
+        return older != null ? older : current;
+    }
+
+    /** Return the version store behind snapshot reads. */
+    public PageVersions getVersions() {
+        return versions;
+    }
+
+    /**
+     * Start loading a page in the background, without taking any lock, so a
+     * later getPage finds it resident. Does nothing if the page is resident
+     * or already being loaded.
+     *
+     * @param pid the ID of the page to load
+     */
+    public void prefetchPage(PageId pid) {
+        prefetchPage(pid, null);
+    }
+
+    /**
+     * Start loading a page in the background as part of a bulk read; see
+     * {@link #getPage(TransactionId, PageId, Permissions, BufferRing)}.
+     *
+     * @param pid the ID of the page to load
+     * @param ring the ring of the bulk read, or null
+     */
+    public void prefetchPage(PageId pid, BufferRing ring) {
+        if (shardFor(pid).contains(pid) || loading.containsKey(pid)) {
+            return;
+        }
+        try {
+            readAheadPool.execute(() -> {
+                try {
+                    load(shardFor(pid), pid, false, ring);
+                } catch (DbException | RuntimeException e) {
+                    // read-ahead is only a hint; getPage will report real errors
+                }
+            });
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // the pool has been shut down
+        }
+    }
+
+    /**
+     * Save the ids of the resident pages to the given file when this pool
+     * shuts down (or the JVM exits), and start loading the pages saved
+     * there last time, if any, in the background.
+     *
+     * @param f the file to save page ids to and warm up from
+     * @return the warm-up, completing with the number of pages loaded
+     */
+    public synchronized CompletableFuture<Integer> enableWarmStart(File f) {
+        if (warmFileHook == null) {
+            warmFileHook = new Thread(this::saveOnExit);
+            Runtime.getRuntime().addShutdownHook(warmFileHook);
+        }
+        warmFile = f;
+        return f.exists() ? prewarm(f) : CompletableFuture.completedFuture(0);
+    }
+
+    private void saveOnExit() {
+        File f = warmFile;
+        if (f != null) {
+            try {
+                saveResidentPages(f);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            long s1 = System.currentTimeMillis();
-            result = lockManager.grantLock(tid, pid, perm);
-            long s2 = System.currentTimeMillis()-s1;
-            System.out.print(s2);
         }
+    }
 
-        if(map.containsKey(pid)){
-            return map.get(pid);
-        }else{
+    /**
+     * Write the ids of the resident pages to a file, hottest first.
+     *
+     * @param f the file to write
+     */
+    public void saveResidentPages(File f) throws IOException {
+        BufferPoolDump.write(f, residentPagesByHotness());
+    }
+
+    /**
+     * Return the ids of the resident pages, hottest first. Each shard ranks
+     * its own pages; shards are merged by relative rank.
+     */
+    List<PageId> residentPagesByHotness() {
+        List<PageId> merged = new ArrayList<>();
+        List<Double> ranks = new ArrayList<>();
+        for (Shard shard : shards) {
+            List<PageId> hottest = shard.hottestFirst();
+            for (int i = 0; i < hottest.size(); i++) {
+                merged.add(hottest.get(i));
+                ranks.add((double) i / hottest.size());
+            }
+        }
+        Integer[] order = new Integer[merged.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(ranks::get));
+        List<PageId> byHotness = new ArrayList<>(order.length);
+        for (int i : order) {
+            byHotness.add(merged.get(i));
+        }
+        return byHotness;
+    }
+
+    /**
+     * Load the pages listed in a file written by {@link #saveResidentPages},
+     * in the background. Only as many of the hottest pages as fit in free
+     * frames are loaded, and they are read in file order, adjacent pages
+     * with one read. Pages that no longer exist are skipped.
+     *
+     * @param f the file listing the pages
+     * @return the warm-up, completing with the number of pages loaded
+     */
+    public CompletableFuture<Integer> prewarm(File f) {
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        try {
+            readAheadPool.execute(() -> {
+                try {
+                    done.complete(warm(BufferPoolDump.read(f)));
+                } catch (IOException | RuntimeException e) {
+                    done.completeExceptionally(e);
+                }
+            });
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    private int warm(List<PageId> hottestFirst) {
+        List<PageId> pids = new ArrayList<>(
+                hottestFirst.subList(0, Math.min(numPages, hottestFirst.size())));
+        pids.sort(Comparator.comparingInt(PageId::getTableId)
+                .thenComparingInt(PageId::getPageNumber));
+        int warmed = 0;
+        int start = 0;
+        while (start < pids.size()) {
+            int end = start + 1;
+            while (end < pids.size() && end - start < WARM_RUN_PAGES
+                    && follows(pids.get(end - 1), pids.get(end))) {
+                end++;
+            }
+            int n = warmRun(pids.subList(start, end));
+            if (n < 0) {
+                break;
+            }
+            warmed += n;
+            start = end;
+        }
+        return warmed;
+    }
+
+    private static boolean follows(PageId prev, PageId pid) {
+        return pid.getClass() == prev.getClass() && pid.getTableId() == prev.getTableId()
+                && pid.getPageNumber() == prev.getPageNumber() + 1;
+    }
+
+    /**
+     * Load the pages of one run that are not resident yet, into free
+     * frames only. The pages are claimed in the loading table first, so a
+     * getPage that wants one of them waits for the warm-up instead of
+     * racing it.
+     *
+     * @return the number of pages loaded, or -1 if the pool filled up
+     */
+    private int warmRun(List<PageId> run) {
+        HashMap<PageId, CompletableFuture<Page>> claimed = new HashMap<>();
+        boolean full = false;
+        for (PageId pid : run) {
+            CompletableFuture<Page> mine = new CompletableFuture<>();
+            if (loading.putIfAbsent(pid, mine) != null) {
+                continue;
+            }
+            if (shardFor(pid).contains(pid)) {
+                loading.remove(pid, mine);
+                mine.complete(null);
+                continue;
+            }
+            if (!tryReserveFrame()) {
+                loading.remove(pid, mine);
+                mine.complete(null);
+                full = true;
+                break;
+            }
+            claimed.put(pid, mine);
+        }
+        int warmed = 0;
+        try {
+            if (!claimed.isEmpty()) {
+                DbFile file = Database.getCatalog().getDatabaseFile(run.get(0).getTableId());
+                for (Page page : file.readPages(run)) {
+                    CompletableFuture<Page> mine = claimed.remove(page.getId());
+                    if (mine != null) {
+                        mine.complete(shardFor(page.getId()).putIfAbsent(page, false, null));
+                        loading.remove(page.getId(), mine);
+                        stats.recordReadAhead();
+                        warmed++;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // the table or page is gone; getPage will report real errors
+        } finally {
+            for (Map.Entry<PageId, CompletableFuture<Page>> e : claimed.entrySet()) {
+                residentPages.decrementAndGet();
+                loading.remove(e.getKey(), e.getValue());
+                e.getValue().complete(null);
+            }
+        }
+        return full ? -1 : warmed;
+    }
+
+    /**
+     * Return the resident copy of a page, reading it in if necessary.
+     * Concurrent loads of the same page wait for the first one.
+     *
+     * @param demand true for a real reference, false for read-ahead
+     * @param ring the ring to load the page into, or null
+     */
+    private Page load(Shard shard, PageId pid, boolean demand, BufferRing ring)
+            throws DbException {
+        while (true) {
+            Page cached = demand ? shard.get(pid, ring) : shard.peek(pid);
+            if (cached != null) {
+                if (demand) {
+                    stats.recordHit();
+                }
+                return cached;
+            }
+            CompletableFuture<Page> mine = new CompletableFuture<>();
+            CompletableFuture<Page> theirs = loading.putIfAbsent(pid, mine);
+            if (theirs != null) {
+                try {
+                    theirs.join();
+                } catch (CompletionException e) {
+                    // the other load failed; try it ourselves
+                }
+                continue;
+            }
+            try {
+                if (ring != null) {
+                    // make room by recycling the ring's oldest page first
+                    PageId recycled = ring.add(pid);
+                    if (recycled != null) {
+                        shardFor(recycled).releaseFromRing(recycled, ring);
+                    }
+                }
+                Page page = readIntoFrame(shard, pid, demand, ring);
+                if (demand) {
+                    stats.recordMiss(pid);
+                } else {
+                    stats.recordReadAhead();
+                }
+                mine.complete(page);
+                return page;
+            } catch (DbException | RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                loading.remove(pid, mine);
+            }
+        }
+    }
+
+    private Page readIntoFrame(Shard shard, PageId pid, boolean demand, BufferRing ring)
+            throws DbException {
+        reserveFrame(shard);
+        Page page = null;
+        try {
             DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            if(numPages == map.size()){
-                evictPage();
+            byte[] parked = shard.unpark(pid);
+            if (parked != null) {
+                page = dbFile.createPage(pid, parked);
             }
-            map.put(pid,page);
-            return page;
+            if (page == null) {
+                page = dbFile.readPage(pid);
+            }
+        } catch (IOException e) {
+            residentPages.decrementAndGet();
+            throw new DbException("could not rebuild page " + pid + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            residentPages.decrementAndGet();
+            throw e;
         }
+        // the page may have been put in by insertTuple while we read it
+        return shard.putIfAbsent(page, demand, ring);
+    }
+
+    /**
+     * Pin a page on behalf of a transaction: it will not be evicted until it
+     * has been unpinned as many times as it was pinned. Pin counts are kept
+     * per page id, so a page may be pinned before it is fetched. Operators
+     * pin the pages they are working through; pinning does not lock
+     * anything. Pins a transaction still holds when it completes are
+     * released then.
+     *
+     * @param tid the transaction pinning the page
+     * @param pid the ID of the page to pin
+     */
+    public void pinPage(TransactionId tid, PageId pid) {
+        HashMap<PageId, Integer> held = pinsByTid.computeIfAbsent(tid, t -> new HashMap<>());
+        synchronized (held) {
+            held.merge(pid, 1, Integer::sum);
+        }
+        shardFor(pid).pin(pid, 1);
+    }
+
+    /**
+     * Release one pin a transaction holds on a page. Does nothing if the
+     * transaction holds no pin on it.
+     *
+     * @param tid the transaction that pinned the page
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        HashMap<PageId, Integer> held = pinsByTid.get(tid);
+        if (held == null) {
+            return;
+        }
+        synchronized (held) {
+            Integer n = held.get(pid);
+            if (n == null) {
+                return;
+            }
+            if (n == 1) {
+                held.remove(pid);
+            } else {
+                held.put(pid, n - 1);
+            }
+        }
+        shardFor(pid).unpin(pid, 1);
+    }
+
+    /** Release every pin held by a transaction. */
+    private void unpinAll(TransactionId tid) {
+        HashMap<PageId, Integer> held = pinsByTid.remove(tid);
+        if (held == null) {
+            return;
+        }
+        synchronized (held) {
+            for (Map.Entry<PageId, Integer> e : held.entrySet()) {
+                shardFor(e.getKey()).unpin(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /** Return the number of outstanding pins on a page. */
+    public int getPinCount(PageId pid) {
+        return shardFor(pid).pinCount(pid);
     }
 
     /**
@@ -126,15 +968,10 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param pid the ID of the page to unlock
      */
-    public synchronized void releasePage(TransactionId tid, PageId pid) {
+    public void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-        ArrayList<Lock> list = lockManager.lockPageMap.get(pid);
-        Lock lock = lockManager.getLock(tid, pid);
-        if(lock != null){
-            list.remove(lock);
-            lockManager.lockPageMap.put(pid, list);
-        }
+        lockManager.releasePage(tid, pid);
     }
 
     /**
@@ -155,6 +992,16 @@ public class BufferPool {
         return lockManager.holdsLock(tid, p);
     }
 
+    /** Return true if the specified transaction has a lock on the specified row */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        return lockManager.holdsLock(tid, rid);
+    }
+
+    /** Return the lock manager holding the table, page and row locks. */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
@@ -167,15 +1014,28 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1|lab2
         Transactions.remove(tid);
+        Long snapshot = snapshots.remove(tid);
+        if (snapshot != null) {
+            versions.endSnapshot(snapshot);
+        }
+        List<FileAction> undo = undoActions.remove(tid);
+        List<FileAction> then = commitActions.remove(tid);
         if(commit == true){
             flushPages(tid);
+            if (then != null) {
+                for (FileAction action : then) {
+                    action.run();
+                }
+            }
         }else{
-            for (Page page : map.values()) {
-                if (page.isDirty()!=null && page.isDirty().equals(tid)) {
-                    map.put(page.getId(), page.getBeforeImage());
+            restorePages(tid);
+            if (undo != null) {
+                for (int i = undo.size() - 1; i >= 0; i--) {
+                    undo.get(i).run();
                 }
             }
         }
+        unpinAll(tid);
         lockManager.releaseTidlock(tid);
     }
 
@@ -203,7 +1063,7 @@ public class BufferPool {
         a = file.insertTuple(tid, t);
         for(int i = 0; i < a.size(); i++){
             a.get(i).markDirty(true, tid);
-            map.put(a.get(i).getId(),a.get(i));
+            shardFor(a.get(i).getId()).put(a.get(i));
         }
     }
 
@@ -229,22 +1089,65 @@ public class BufferPool {
         DbFile file = (DbFile) Database.getCatalog().getDatabaseFile(tableid);
         a = file.deleteTuple(tid, t);
         for(int i = 0; i < a.size(); i++){
-            if(a.get(i).isDirty() != null){
-                map.put(a.get(i).getId(),a.get(i));
-            }
+            a.get(i).markDirty(true, tid);
+            shardFor(a.get(i).getId()).put(a.get(i));
         }
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk: log them, write them sorted by file
+     * and page number with adjacent pages in one write, and force each
+     * file written to once at the end.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for( PageId pageId : map.keySet()){
-            flushPage(pageId);
+        Set<DbFile> written = new LinkedHashSet<>();
+        List<Page> dirty = new ArrayList<>();
+        LogFile log = Database.getLogFile();
+        for (Shard shard : shards) {
+            for (Page page : shard.dirtyPages(null)) {
+                TransactionId dirtier = page.isDirty();
+                if (dirtier != null) {
+                    log.logWrite(dirtier, page.getBeforeImage(), page);
+                    dirty.add(page);
+                }
+            }
+        }
+        if (!dirty.isEmpty()) {
+            log.force();
+            // sorted and coalesced into one write per run of adjacent pages
+            written.addAll(cleaner.writeThrough(dirty));
+            for (Page page : dirty) {
+                page.markDirty(false, null);
+            }
+        }
+        for (DbFile file : written) {
+            file.force();
+        }
+    }
+
+    /**
+     * Undo tid's changes to every page now, without ending the transaction.
+     * Lets an access method that has to give up halfway through changing a
+     * structure put it back before other transactions can see it; the
+     * transaction must still abort afterwards.
+     *
+     * @param tid the ID of the transaction whose changes to undo
+     */
+    public void restorePages(TransactionId tid) {
+        // grouped by file, so each file can guard its pages while they are put back
+        HashMap<Integer, List<PageId>> byTable = new HashMap<>();
+        for (Shard shard : shards) {
+            for (Page page : shard.dirtyPages(tid)) {
+                byTable.computeIfAbsent(page.getId().getTableId(), t -> new ArrayList<>()).add(page.getId());
+            }
+        }
+        for (Map.Entry<Integer, List<PageId>> e : byTable.entrySet()) {
+            DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+            file.restorePages(tid, e.getValue(), pid -> shardFor(pid).restoreBeforeImage(tid, pid));
         }
     }
 
@@ -256,183 +1159,381 @@ public class BufferPool {
      Also used by B+ tree files to ensure that deleted pages
      are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        shardFor(pid).remove(pid);
     }
 
-    /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
+    /** Write all pages of the specified transaction to disk.
+     * <p>
+     * Each page's update is logged and its committed image becomes the new
+     * before image. On a page other transactions are changing rows of too,
+     * only this transaction's rows are committed (see {@link
+     * Page#commitChanges}). Once the log is forced, the committed images are
+     * written through, a run of adjacent pages at a time, and each file
+     * written to is forced: recovery cannot yet redo committed updates from
+     * the log, so they must be in the data files before the commit record.
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1
-        Page page = map.get(pid);
-        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        file.writePage(page);
-        page.markDirty(false,null);
+        // not necessary for lab1|lab2
+        LogFile log = Database.getLogFile();
+        List<Page> committed = new ArrayList<>();
+        long ts = versions.beginCommit();
+        try {
+            for (Shard shard : shards) {
+                for (Page page : shard.dirtyPages(tid)) {
+                    Page before = page.getBeforeImage();
+                    // snapshots older than this commit still read before
+                    versions.retire(page.getId(), before, ts);
+                    Page image = page.commitChanges(tid);
+                    log.logWrite(tid, before, image);
+                    committed.add(image);
+                }
+            }
+        } finally {
+            versions.endCommit(ts);
+        }
+        if (committed.isEmpty()) {
+            return;
+        }
+        log.force();
+        for (DbFile file : cleaner.writeThrough(committed)) {
+            file.force();
+        }
     }
 
-    /** Write all pages of the specified transaction to disk.
+    /**
+     * Save the warm-start page list, if enabled, and stop the pool's
+     * background threads. Called when this buffer pool is being replaced or
+     * the database is shutting down.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
-        for(PageId pageid: map.keySet()){
-            if(map.get(pageid).isDirty() != null && map.get(pageid).isDirty() == tid){
-                flushPage(map.get(pageid).getId());
+    public void shutdown() throws IOException {
+        synchronized (this) {
+            if (warmFileHook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(warmFileHook);
+                } catch (IllegalStateException e) {
+                    // the JVM is already exiting and will run the hook
+                }
+                saveOnExit();
+                warmFile = null;
             }
         }
+        readAheadPool.shutdownNow();
+        maintenance.shutdownNow();
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool, preferring the given shard and
+     * falling back to the others if it holds only dirty or pinned pages.
+     * Under NO STEAL only clean pages are ever evicted.
+     *
+     * @param home the shard that needs the free frame
+     * @return false if nothing could be evicted only because clean pages
+     *   are pinned
+     * @throws DbException if every resident page is dirty
      */
-    private synchronized void evictPage() throws DbException {
+    private boolean evictPage(Shard home) throws DbException {
         // some code goes here
         // not necessary for lab1
-        for (Page page:map.values()) {
-            if(page.isDirty() == null){
-                map.remove(page.getId());
-                return;
+        if (home.evictOne()) {
+            return true;
+        }
+        boolean pinnedClean = home.hasPinnedClean();
+        for (Shard shard : shards) {
+            if (shard != home) {
+                if (shard.evictOne()) {
+                    return true;
+                }
+                pinnedClean |= shard.hasPinnedClean();
             }
         }
+        if (pinnedClean) {
+            return false;
+        }
         throw new DbException("all pages are dirty, NO STEAL!");
     }
 
-    private class LockManager{
-        private ConcurrentHashMap<PageId, ArrayList<Lock>> lockPageMap;
+    /**
+     * Claim room for one more resident page, evicting as needed. The caller
+     * must either cache a page in the claimed frame or give it back.
+     * <p>
+     * Pins are short-lived, so when pinned pages are all that stands in the
+     * way the pool goes over its size for a while instead of failing; later
+     * reservations evict it back down.
+     *
+     * @param home the shard the new page belongs to
+     */
+    private void reserveFrame(Shard home) throws DbException {
+        while (!tryReserveFrame()) {
+            if (!evictPage(home)) {
+                residentPages.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /** Claim a free frame without evicting; return false if there is none. */
+    private boolean tryReserveFrame() {
+        while (true) {
+            int resident = residentPages.get();
+            if (resident >= frameLimit) {
+                return false;
+            }
+            if (residentPages.compareAndSet(resident, resident + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private Shard shardFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return shards[(h & 0x7fffffff) % shards.length];
+    }
+
+    /**
+     * One partition of the page table. A shard's page map, replacement
+     * policy and off-heap frames are guarded by the shard's own monitor.
+     */
+    private class Shard {
+        private final HashMap<PageId, Page> pages;
+        private final ReplacementPolicy replacementPolicy;
+        // clean pages evicted from this shard, or null if off-heap caching is off
+        private final PageFrameArena arena;
+        // read ahead, and not referenced since
+        private final HashSet<PageId> prefetched;
+        // outstanding pins; pages in here are never evicted
+        private final HashMap<PageId, Integer> pins;
+        // pages loaded by a bulk read and not referenced by anyone else since
+        private final HashMap<PageId, BufferRing> ringOwned;
 
-        public LockManager(){
-            lockPageMap = new ConcurrentHashMap<>();
+        Shard(ReplacementPolicy replacementPolicy, PageFrameArena arena) {
+            this.pages = new HashMap<>();
+            this.replacementPolicy = replacementPolicy;
+            this.arena = arena;
+            this.prefetched = new HashSet<>();
+            this.pins = new HashMap<>();
+            this.ringOwned = new HashMap<>();
         }
 
-        public Lock getLock(TransactionId tid, PageId pid)
-        {
-            ArrayList<Lock> locklist = lockPageMap.get(pid);
-            if(locklist == null)
-            {
+        /**
+         * Return the resident copy of pid, recording the hit, or null. A
+         * normal reference takes a page over from the ring that loaded it;
+         * a bulk read of a ring page does not count as a hit for the
+         * replacement policy.
+         *
+         * @param ring the ring of the bulk read, or null
+         */
+        synchronized Page get(PageId pid, BufferRing ring) {
+            Page page = pages.get(pid);
+            if (page == null) {
                 return null;
-            }else {
-                for(Lock lock:locklist)
-                {
-                    if(lock.getId().equals(tid)){
-                        return lock;
-                    }
+            }
+            boolean ringPage = false;
+            if (ring == null) {
+                ringOwned.remove(pid);
+            } else {
+                ringPage = ringOwned.containsKey(pid);
+            }
+            // the first reference to a prefetched page was counted when it
+            // was loaded; counting it again would make it look hot
+            if (!prefetched.remove(pid) && !ringPage) {
+                replacementPolicy.recordAccess(pid);
+            }
+            return page;
+        }
+
+        /**
+         * Return the ids of resident pages in the replacement policy's
+         * order, hottest first, leaving out pages only a bulk read or
+         * read-ahead has touched.
+         */
+        synchronized List<PageId> hottestFirst() {
+            List<PageId> hottest = new ArrayList<>();
+            for (PageId pid : replacementPolicy.hottestFirst()) {
+                if (pages.containsKey(pid) && !ringOwned.containsKey(pid)
+                        && !prefetched.contains(pid)) {
+                    hottest.add(pid);
                 }
             }
-            return null;
+            return hottest;
         }
 
-        public synchronized void releaseLock(TransactionId tid)
-        {
-            List<PageId> pid = new ArrayList<>();
-            for(Map.Entry<PageId, ArrayList<Lock>> entry:lockPageMap.entrySet()){
-                for(Lock lock: entry.getValue()){
-                    if(lock.getId().equals(tid)){
-                        pid.add(entry.getKey());
-                    }
+        /** Return the resident copy of pid without recording a hit, or null. */
+        synchronized Page peek(PageId pid) {
+            return pages.get(pid);
+        }
+
+        synchronized boolean contains(PageId pid) {
+            return pages.containsKey(pid);
+        }
+
+        synchronized void pin(PageId pid, int count) {
+            pins.merge(pid, count, Integer::sum);
+        }
+
+        synchronized void unpin(PageId pid, int count) {
+            pins.computeIfPresent(pid, (p, n) -> n <= count ? null : n - count);
+        }
+
+        /** Return true if some resident page is clean but pinned. */
+        synchronized boolean hasPinnedClean() {
+            for (PageId pid : pins.keySet()) {
+                Page page = pages.get(pid);
+                if (page != null && page.isDirty() == null) {
+                    return true;
                 }
             }
-            for(PageId p:pid){
-                ArrayList<Lock> lock = new ArrayList<>();
-                lock = lockPageMap.get(pid);
-                if(lock != null && lock.size() != 0)
-                {
-                    Lock l = getLock(tid, p);
-                    if(l != null){
-                        lock.remove(l);
-                        lockPageMap.put(p,lock);
-                    }
+            return false;
+        }
+
+        synchronized int pinCount(PageId pid) {
+            Integer n = pins.get(pid);
+            return n == null ? 0 : n;
+        }
+
+        /**
+         * Cache a page read into a reserved frame, unless a copy is already
+         * resident, in which case the frame is given back.
+         *
+         * @param demand false if the page is only being read ahead
+         * @param ring the ring the page is loaded into, or null
+         * @return the resident copy of the page
+         */
+        synchronized Page putIfAbsent(Page page, boolean demand, BufferRing ring) {
+            PageId pid = page.getId();
+            Page resident = pages.get(pid);
+            if (resident == null) {
+                pages.put(pid, page);
+                resident = page;
+                dropParked(pid);
+                replacementPolicy.recordAccess(pid);
+                if (!demand) {
+                    prefetched.add(pid);
+                }
+                if (ring != null) {
+                    ringOwned.put(pid, ring);
+                }
+            } else {
+                residentPages.decrementAndGet();
+                if (ring == null) {
+                    ringOwned.remove(pid);
+                }
+                if (demand && !prefetched.remove(pid) && !ringOwned.containsKey(pid)) {
+                    replacementPolicy.recordAccess(pid);
                 }
             }
+            return resident;
         }
 
-        public synchronized boolean lock(PageId pid, TransactionId tid, Permissions perm){
-            Lock l;
-            if(perm == Permissions.READ_WRITE)
-            {
-                l = new Lock(tid, false, perm);
-            }else{
-                l = new Lock(tid, true, perm);
+        /**
+         * Drop a page the given ring loaded, if the ring still owns it and
+         * it is clean and unpinned. The page is not kept off-heap: nobody
+         * but the bulk read has asked for it.
+         */
+        synchronized void releaseFromRing(PageId pid, BufferRing ring) {
+            if (ringOwned.get(pid) != ring) {
+                return;
             }
-            ArrayList<Lock> list = lockPageMap.get(pid);
-            if(list == null)
-            {
-                list = new ArrayList<>();
+            ringOwned.remove(pid);
+            Page page = pages.get(pid);
+            if (page == null || page.isDirty() != null || pins.containsKey(pid)) {
+                return;
             }
-            list.add(l);
-            lockPageMap.put(pid, list);
-            return true;
+            pages.remove(pid);
+            replacementPolicy.remove(pid);
+            prefetched.remove(pid);
+            stats.recordEviction();
+            residentPages.decrementAndGet();
         }
 
-        public boolean holdsLock(TransactionId tid, PageId pid)
-        {
-            if(getLock(tid, pid)!=null){
-                return true;
+        /** Cache a page, replacing any resident copy. */
+        synchronized void put(Page page) {
+            if (pages.put(page.getId(), page) == null) {
+                residentPages.incrementAndGet();
             }
-            return false;
-
+            prefetched.remove(page.getId());
+            ringOwned.remove(page.getId());
+            dropParked(page.getId());
+            replacementPolicy.recordAccess(page.getId());
         }
 
-        public synchronized void releaseTidlock(TransactionId tid){
-            ArrayList<PageId> p = new ArrayList<>();
-            for(Map.Entry<PageId, ArrayList<Lock>> entry : lockPageMap.entrySet()){
-                for(Lock lock : entry.getValue()){
-                    if(lock.getId().equals(tid)){
-                        p.add(entry.getKey());
-                    }
-                }
+        synchronized void remove(PageId pid) {
+            replacementPolicy.remove(pid);
+            prefetched.remove(pid);
+            ringOwned.remove(pid);
+            if (pages.remove(pid) != null) {
+                residentPages.decrementAndGet();
             }
-            for( PageId pid : p){
-                Lock lock = getLock(tid, pid);
-                if(lock != null){
-                    ArrayList<Lock> locklist = lockPageMap.get(pid);
-                    locklist.remove(lock);
-                    lockPageMap.put(pid, locklist);
-                }
+            dropParked(pid);
+        }
+
+        /** Take the off-heap image of an evicted page, or return null. */
+        synchronized byte[] unpark(PageId pid) {
+            return arena == null ? null : arena.take(pid);
+        }
+
+        private void dropParked(PageId pid) {
+            if (arena != null) {
+                arena.remove(pid);
             }
         }
 
-        public synchronized boolean grantLock(TransactionId tid, PageId pid, Permissions perm){
-            ArrayList<Lock> list =lockPageMap.get(pid);
-            boolean fuck;
-            if(perm == Permissions.READ_ONLY)fuck = true;
-            else fuck = false;
-            if(list == null || list.size() == 0){
-                Lock lock = new Lock(tid, fuck, perm);
-                if(list == null)list = new ArrayList<>();
-                list.add(lock);
-                lockPageMap.put(pid, list);
-                return true;
+        /** Evict one clean, unpinned page; return false if there is none. */
+        synchronized boolean evictOne() {
+            PageId victim = replacementPolicy.chooseVictim(pid -> {
+                Page page = pages.get(pid);
+                return page != null && page.isDirty() == null && !pins.containsKey(pid);
+            });
+            if (victim == null) {
+                return false;
             }
-            for(Lock lock : list){
-                if(lock.getId().equals(tid)){
-                    if(lock.getPerm().equals(perm))return true;
-                    if(lock.getPerm().equals(Permissions.READ_WRITE))return true;
-                    else{
-                        if(list.size() == 1){
-                            lock.setLockType(Permissions.READ_WRITE);
-                            return true;
-                        }
-                        return false;
-                    }
+            Page page = pages.remove(victim);
+            prefetched.remove(victim);
+            ringOwned.remove(victim);
+            stats.recordEviction();
+            if (arena != null) {
+                arena.put(victim, page.getPageData());
+            }
+            residentPages.decrementAndGet();
+            return true;
+        }
+
+        synchronized int numDirty() {
+            int dirty = 0;
+            for (Page page : pages.values()) {
+                if (page.isDirty() != null) {
+                    dirty++;
                 }
             }
-            if(list.get(0).getPerm().equals(Permissions.READ_WRITE))return false;
-            else{
-                if(perm.equals(Permissions.READ_ONLY)){
-                    Lock lock = new Lock(tid, fuck, perm);
-                    list.add(lock);
-                    return true;
-                }else{
-                    return false;
+            return dirty;
+        }
+
+        /** Return the pages dirtied by tid, or all dirty pages if tid is null. */
+        synchronized List<Page> dirtyPages(TransactionId tid) {
+            List<Page> dirty = new ArrayList<>();
+            for (Page page : pages.values()) {
+                if (tid == null ? page.isDirty() != null : page.isDirtiedBy(tid)) {
+                    dirty.add(page);
                 }
             }
+            return dirty;
         }
 
+        /**
+         * Undo tid's changes on a page, usually by restoring its before
+         * image, and return the page now held, or null if there is none.
+         */
+        synchronized Page restoreBeforeImage(TransactionId tid, PageId pid) {
+            Page page = pages.get(pid);
+            if (page != null && page.isDirtiedBy(tid)) {
+                page = page.abortChanges(tid);
+                pages.put(pid, page);
+            }
+            return page;
+        }
     }
 }
-
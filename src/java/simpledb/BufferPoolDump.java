@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the list of page ids a BufferPool saves when it shuts
+ * down, so the next run can load the same pages again before they are
+ * asked for (see {@link BufferPool#enableWarmStart}).
+ * <p>
+ * The file holds the number of ids, then for each id its class name and
+ * its serialized form ({@link PageId#serialize()}), the same encoding
+ * {@link LogFile} uses. Ids are stored hottest first.
+ */
+public class BufferPoolDump {
+
+    private BufferPoolDump() {
+    }
+
+    /**
+     * Write a list of page ids, replacing the file atomically so a crash
+     * never leaves a truncated dump behind.
+     *
+     * @param f the file to write
+     * @param pids the ids to save, hottest first
+     */
+    public static void write(File f, List<PageId> pids) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int d : data) {
+                    out.writeInt(d);
+                }
+            }
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f)) {
+                throw new IOException("could not replace " + f);
+            }
+        }
+    }
+
+    /**
+     * Read back a list of page ids written by {@link #write}.
+     *
+     * @param f the file to read
+     * @return the saved ids, hottest first
+     */
+    public static List<PageId> read(File f) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            int n = in.readInt();
+            List<PageId> pids = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                String idClassName = in.readUTF();
+                Object[] args = new Object[in.readInt()];
+                for (int j = 0; j < args.length; j++) {
+                    args[j] = in.readInt();
+                }
+                pids.add(newPageId(idClassName, args));
+            }
+            return pids;
+        }
+    }
+
+    private static PageId newPageId(String idClassName, Object[] args) throws IOException {
+        try {
+            for (Constructor<?> c : Class.forName(idClassName).getDeclaredConstructors()) {
+                if (c.getParameterCount() == args.length) {
+                    return (PageId) c.newInstance(args);
+                }
+            }
+            throw new IOException("no constructor of " + idClassName + " takes "
+                    + args.length + " ints");
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException
+                | InvocationTargetException | ClassCastException e) {
+            throw new IOException("bad page id " + idClassName + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters describing how a BufferPool is behaving: hit ratio, misses per
+ * table, evictions, page writes, dirty pages, lock waits and lock
+ * escalations. Counters are
+ * LongAdders, so the getPage, eviction and flush paths update them without
+ * taking any lock; page counts are read from the pool when asked for.
+ * <p>
+ * The stats of the current pool are available from
+ * {@link Database#getStats()} and are registered with the platform MBean
+ * server under {@value #OBJECT_NAME}.
+ *
+ * @Threadsafe
+ */
+public class BufferPoolStats implements BufferPoolStatsMXBean {
+
+    /** JMX name the stats of the current buffer pool are registered under. */
+    public static final String OBJECT_NAME = "simpledb:type=BufferPoolStats";
+
+    private final BufferPool pool;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final ConcurrentHashMap<Integer, LongAdder> missesByTable = new ConcurrentHashMap<>();
+    private final LongAdder readAheadLoads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder pageWrites = new LongAdder();
+    private final LongAdder lockWaits = new LongAdder();
+    private final LongAdder lockWaitMillis = new LongAdder();
+    private final LongAdder lockEscalations = new LongAdder();
+
+    BufferPoolStats(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss(PageId pid) {
+        misses.increment();
+        missesByTable.computeIfAbsent(pid.getTableId(), t -> new LongAdder()).increment();
+    }
+
+    void recordReadAhead() {
+        readAheadLoads.increment();
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    void recordPageWrite() {
+        pageWrites.increment();
+    }
+
+    void recordLockWait(long millis) {
+        lockWaits.increment();
+        lockWaitMillis.add(millis);
+    }
+
+    void recordLockEscalation() {
+        lockEscalations.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public Map<Integer, Long> getMissesByTable() {
+        Map<Integer, Long> byTable = new HashMap<>();
+        for (Map.Entry<Integer, LongAdder> e : missesByTable.entrySet()) {
+            byTable.put(e.getKey(), e.getValue().sum());
+        }
+        return byTable;
+    }
+
+    public long getReadAheadLoads() {
+        return readAheadLoads.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getPageWrites() {
+        return pageWrites.sum();
+    }
+
+    public int getResidentPages() {
+        return pool.getNumResidentPages();
+    }
+
+    public int getDirtyPages() {
+        return pool.getNumDirtyPages();
+    }
+
+    public long getLockWaits() {
+        return lockWaits.sum();
+    }
+
+    public long getLockWaitMillis() {
+        return lockWaitMillis.sum();
+    }
+
+    public long getLockEscalations() {
+        return lockEscalations.sum();
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        missesByTable.clear();
+        readAheadLoads.reset();
+        evictions.reset();
+        pageWrites.reset();
+        lockWaits.reset();
+        lockWaitMillis.reset();
+        lockEscalations.reset();
+    }
+
+    public String toString() {
+        return String.format("hits=%d misses=%d hitRatio=%.3f readAhead=%d evictions=%d "
+                        + "writes=%d resident=%d dirty=%d lockWaits=%d lockWaitMs=%d "
+                        + "escalations=%d",
+                getHits(), getMisses(), getHitRatio(), getReadAheadLoads(), getEvictions(),
+                getPageWrites(), getResidentPages(), getDirtyPages(), getLockWaits(),
+                getLockWaitMillis(), getLockEscalations());
+    }
+
+    /**
+     * Publish these stats over JMX, replacing whatever was registered under
+     * {@value #OBJECT_NAME} before. Failures are ignored; JMX is optional.
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException | SecurityException e) {
+            Debug.log("could not register BufferPoolStats: " + e);
+        }
+    }
+}
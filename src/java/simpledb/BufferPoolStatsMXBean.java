@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link BufferPoolStats}, published over JMX as
+ * {@value BufferPoolStats#OBJECT_NAME}.
+ */
+public interface BufferPoolStatsMXBean {
+
+    /** Return the number of getPage calls served from the pool. */
+    public long getHits();
+
+    /** Return the number of getPage calls that had to load the page. */
+    public long getMisses();
+
+    /** Return hits / (hits + misses), or 0 before the first access. */
+    public double getHitRatio();
+
+    /** Return misses broken down by table id. */
+    public Map<Integer, Long> getMissesByTable();
+
+    /** Return the number of pages loaded by read-ahead. */
+    public long getReadAheadLoads();
+
+    /** Return the number of pages evicted to make room. */
+    public long getEvictions();
+
+    /** Return the number of pages written to data files. */
+    public long getPageWrites();
+
+    /** Return the number of pages currently resident. */
+    public int getResidentPages();
+
+    /** Return the number of resident pages that are dirty. */
+    public int getDirtyPages();
+
+    /** Return the number of lock requests that could not be granted at once. */
+    public long getLockWaits();
+
+    /** Return the total time spent waiting for locks, in milliseconds. */
+    public long getLockWaitMillis();
+
+    /** Return the number of times page and row locks were escalated to a table lock. */
+    public long getLockEscalations();
+
+    /** Zero all counters. */
+    public void reset();
+}
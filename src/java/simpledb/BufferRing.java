@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bulk-read access strategy for the BufferPool. A scan that passes a
+ * BufferRing to {@link BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)}
+ * keeps at most {@link #size()} of the pages it brings in: once the ring is
+ * full, the oldest page it loaded is dropped from the pool to make room for
+ * the next one. A table scan larger than the pool therefore recycles a
+ * small set of frames instead of flushing everyone else's pages out.
+ * <p>
+ * Pages that were already resident are used as they are and are not taken
+ * over by the ring; a ring page that someone else references through the
+ * normal getPage becomes an ordinary shared page.
+ *
+ * @Threadsafe
+ */
+public class BufferRing {
+
+    /** Default number of pages in a ring. */
+    public static final int DEFAULT_SIZE = 32;
+
+    private final int size;
+    // pages this ring loaded, oldest first
+    private final ArrayDeque<PageId> pages;
+
+    public BufferRing() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param size number of pages the ring may hold
+     */
+    public BufferRing(int size) {
+        this.size = Math.max(1, size);
+        this.pages = new ArrayDeque<>();
+    }
+
+    /** Return the number of pages the ring may hold. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return a ring for scanning a table of the given size, or null if the
+     * table fits in the buffer pool and is worth caching. The ring takes at
+     * most a quarter of the pool, but always has room for the page being
+     * scanned plus the scan's read-ahead window.
+     *
+     * @param tablePages number of pages in the table
+     */
+    public static BufferRing forScan(int tablePages) {
+        BufferPool pool = Database.getBufferPool();
+        if (tablePages <= pool.getCapacity()) {
+            return null;
+        }
+        int size = Math.min(DEFAULT_SIZE, pool.getCapacity() / 4);
+        return new BufferRing(Math.max(size, pool.getReadAheadPages() + 2));
+    }
+
+    /**
+     * Record that the ring loaded a page, and return the page that should
+     * leave the pool to make room, if the ring is full.
+     */
+    synchronized PageId add(PageId pid) {
+        pages.add(pid);
+        return pages.size() > size ? pages.poll() : null;
+    }
+}
@@ -227,6 +227,8 @@ public class Catalog {
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
+            // reload what was cached when the database last shut down
+            Database.getBufferPool().enableWarmStart(new File(baseFolder, BufferPool.WARM_FILE_NAME));
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular array
+ * of slots, each with a reference bit that is set on every access. To find a
+ * victim the clock hand sweeps the slots, clearing set bits as it passes, and
+ * stops at the first evictable page whose bit is already clear.
+ *
+ * @see ReplacementPolicy
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private final ArrayList<PageId> slots;
+    private final ArrayList<Boolean> referenced;
+    private final HashMap<PageId, Integer> slotOf;
+    private final ArrayDeque<Integer> freeSlots;
+    private int hand;
+
+    public ClockReplacementPolicy() {
+        slots = new ArrayList<>();
+        referenced = new ArrayList<>();
+        slotOf = new HashMap<>();
+        freeSlots = new ArrayDeque<>();
+        hand = 0;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null) {
+            referenced.set(slot, true);
+            return;
+        }
+        if (freeSlots.isEmpty()) {
+            slots.add(pid);
+            referenced.add(true);
+            slotOf.put(pid, slots.size() - 1);
+        } else {
+            slot = freeSlots.poll();
+            slots.set(slot, pid);
+            referenced.set(slot, true);
+            slotOf.put(pid, slot);
+        }
+    }
+
+    public synchronized void remove(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            clearSlot(slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        int n = slots.size();
+        // two full turns: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int slot = hand;
+            hand = (hand + 1) % n;
+            PageId pid = slots.get(slot);
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.get(slot)) {
+                referenced.set(slot, false);
+            } else if (evictable.canEvict(pid)) {
+                slotOf.remove(pid);
+                clearSlot(slot);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<PageId> hottestFirst() {
+        // referenced pages first, each group in the order the hand reaches
+        // them last
+        ArrayList<PageId> hottest = new ArrayList<>();
+        ArrayList<PageId> cold = new ArrayList<>();
+        int n = slots.size();
+        for (int i = n; i > 0; i--) {
+            int slot = (hand + i - 1) % n;
+            PageId pid = slots.get(slot);
+            if (pid != null) {
+                (referenced.get(slot) ? hottest : cold).add(pid);
+            }
+        }
+        hottest.addAll(cold);
+        return hottest;
+    }
+
+    private void clearSlot(int slot) {
+        slots.set(slot, null);
+        referenced.set(slot, false);
+        freeSlots.add(slot);
+    }
+}
@@ -24,6 +24,11 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        String memoryFraction = System.getProperty(BufferPool.MEMORY_FRACTION_PROPERTY);
+        if (memoryFraction != null) {
+            _bufferpool.autoSize(Double.parseDouble(memoryFraction));
+        }
+        _bufferpool.getStats().register();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -45,6 +50,14 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /**
+     * Return the counters of the static Database instance's buffer pool.
+     * The same object is published over JMX.
+     */
+    public static BufferPoolStats getStats() {
+        return _instance.get()._bufferpool.getStats();
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -59,7 +72,10 @@ public class Database {
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            _instance.get()._bufferpool.shutdown();
+            BufferPool bufferPool = new BufferPool(pages);
+            bufferPoolF.set(_instance.get(), bufferPool);
+            bufferPool.getStats().register();
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -68,6 +84,8 @@ public class Database {
             e.printStackTrace();
         } catch (IllegalAccessException e) {
             e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 //        _instance._bufferpool = new BufferPool(pages);
         return _instance.get()._bufferpool;
@@ -75,6 +93,12 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        try {
+            _instance.get()._bufferpool.shutdown();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        PageStore.closeAll();
         _instance.set(new Database());
     }
 
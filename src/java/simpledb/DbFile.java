@@ -3,6 +3,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.util.function.Function;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -19,6 +20,33 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read a run of consecutive pages from disk. Files that can should do
+     * this with one large read; by default the pages are read one by one.
+     *
+     * @param ids ids of pages of this file, in ascending page order with
+     *   no gaps
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     */
+    public default List<Page> readPages(List<PageId> ids) throws IOException {
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (PageId id : ids) {
+            pages.add(readPage(id));
+        }
+        return pages;
+    }
+
+    /**
+     * Build the specified page from an image previously produced by its
+     * getPageData(), without touching the disk. The BufferPool uses this to
+     * bring back pages it parked off-heap.
+     *
+     * @return the page, or null if this file cannot rebuild pages
+     */
+    public default Page createPage(PageId id, byte[] data) throws IOException {
+        return null;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +56,43 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push pages that follow one another in this file to disk. Files that
+     * can write them all with one call should.
+     *
+     * @param pages pages of this file, in ascending page order with no gaps
+     * @throws IOException if the write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
+    /**
+     * Force the pages written to this file so far to the disk.
+     *
+     * @throws IOException if the force fails
+     */
+    public default void force() throws IOException {
+    }
+
+    /**
+     * Undo a transaction's changes to pages of this file held in the buffer
+     * pool, when it aborts. restore puts back one page and returns the page
+     * the pool now holds; files call it once for each page, and may guard
+     * the pages around it. By default the pages are just restored in turn.
+     *
+     * @param tid the transaction whose changes to undo
+     * @param pids the pages of this file tid has dirtied
+     * @param restore undoes tid's changes to one page
+     */
+    public default void restorePages(TransactionId tid, List<PageId> pids, Function<PageId, Page> restore) {
+        for (PageId pid : pids) {
+            restore.apply(pid);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -68,6 +133,19 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that
+     * reads its pages through the given {@link BufferRing}, so a scan of a
+     * large file does not flush the buffer pool. Files that do not support
+     * bulk reads return their normal iterator.
+     *
+     * @param ring the ring to read pages into, or null for a normal scan
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    public default DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
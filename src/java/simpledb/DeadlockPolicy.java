@@ -0,0 +1,26 @@
+package simpledb;
+
+/**
+ * How {@link LockManager} keeps deadlocks from stalling transactions. The
+ * two prevention policies order transactions by start time and never let a
+ * waits-for cycle form, at the price of some aborts that detection would
+ * not have needed.
+ */
+public enum DeadlockPolicy {
+    /**
+     * Let transactions wait, look for a waits-for cycle whenever one starts
+     * to wait, and abort the youngest transaction on it.
+     */
+    DETECT,
+    /**
+     * An older transaction blocked by younger ones wounds them: they are
+     * aborted if waiting, or at their next lock request, and the older one
+     * waits. A younger transaction waits for older ones.
+     */
+    WOUND_WAIT,
+    /**
+     * An older transaction waits for younger ones; a younger transaction
+     * blocked by an older one dies, aborting at once instead of waiting.
+     */
+    WAIT_DIE
+}
@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile are full, so an insert
+ * goes straight to a page with room rather than trying every page in turn.
+ * It is kept in a side file named after the heap file with ".fsm"
+ * appended: a 4 byte count of the heap file's pages, then one bit per
+ * page, set if the page is full. The side file is created when the first
+ * page fills up, and each change to the map rewrites just the byte it
+ * falls in.
+ * <p>
+ * The map is a hint. A page marked full may since have had rows deleted
+ * or an insert rolled back; a page not marked full may have filled up.
+ * Inserts still reserve a slot on the page itself and mark the page full
+ * when there is none, so a stale map costs at most a wasted probe or some
+ * unused space, never a lost row. For the same reason the map is neither
+ * logged nor forced. A side file whose page count does not match its heap
+ * file is left over from an earlier file of the same name, and is ignored.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private static final int HEADER_SIZE = 4;
+
+    private final File mapFile;
+    private final PageStore store;
+    // bit i is set if page i is full
+    private final BitSet full;
+    // the number of pages in the heap file, as last recorded in the header
+    private int numPages;
+    // no page before this one has room
+    private int firstFree;
+
+    /**
+     * Load the map of a heap file, or start an empty one if the file has
+     * none or its map is stale.
+     *
+     * @param heapFile the heap file
+     * @param numPages the number of pages in the heap file
+     */
+    public FreeSpaceMap(File heapFile, int numPages) throws IOException {
+        this.mapFile = new File(heapFile.getPath() + ".fsm");
+        this.store = PageStore.get(mapFile);
+        this.numPages = numPages;
+        this.full = load(numPages);
+    }
+
+    private BitSet load(int numPages) throws IOException {
+        if (!mapFile.exists()) {
+            return new BitSet();
+        }
+        byte[] header = new byte[HEADER_SIZE];
+        if (store.read(0, header) < HEADER_SIZE || ByteBuffer.wrap(header).getInt() != numPages) {
+            return new BitSet();
+        }
+        byte[] bits = new byte[(numPages + 7) / 8];
+        store.read(HEADER_SIZE, bits);
+        return BitSet.valueOf(bits);
+    }
+
+    /** Returns the side file the map is kept in. */
+    public File getFile() {
+        return mapFile;
+    }
+
+    /**
+     * Return the first page at or after from that is not marked full. This
+     * is the number of pages in the heap file if every page is full, in
+     * which case the caller appends a page.
+     */
+    public synchronized int findPage(int from) {
+        if (from <= firstFree) {
+            firstFree = full.nextClearBit(firstFree);
+            return firstFree;
+        }
+        return full.nextClearBit(from);
+    }
+
+    /** Returns true if page pgNo is marked full. */
+    public synchronized boolean isFull(int pgNo) {
+        return full.get(pgNo);
+    }
+
+    /** Mark page pgNo full, so inserts pass over it. */
+    public synchronized void markFull(int pgNo) throws IOException {
+        if (!full.get(pgNo)) {
+            full.set(pgNo);
+            writeBits(pgNo);
+        }
+    }
+
+    /**
+     * Mark pages from through to - 1 full, such as pages filled by a bulk
+     * load, writing the bytes they fall in at once.
+     */
+    public synchronized void markFull(int from, int to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        full.set(from, to);
+        numPages = Math.max(numPages, to);
+        if (!mapFile.exists()) {
+            writeBits(from);
+            return;
+        }
+        writeRange(from, to);
+        writeHeader();
+    }
+
+    /** Mark page pgNo as having room, after rows have been deleted from it. */
+    public synchronized void markFree(int pgNo) throws IOException {
+        if (full.get(pgNo)) {
+            full.clear(pgNo);
+            firstFree = Math.min(firstFree, pgNo);
+            writeBits(pgNo);
+        }
+    }
+
+    /**
+     * Record that page pgNo has been added at the end of the heap file,
+     * keeping the side file's page count in step with the heap file.
+     */
+    public synchronized void pageAdded(int pgNo) throws IOException {
+        if (pgNo >= numPages) {
+            numPages = pgNo + 1;
+            if (mapFile.exists()) {
+                writeHeader();
+            }
+        }
+    }
+
+    /**
+     * Record that the heap file has been cut down to numPages pages,
+     * forgetting the pages past its end.
+     */
+    public synchronized void truncated(int numPages) throws IOException {
+        int end = Math.max(numPages, this.numPages);
+        full.clear(numPages, end);
+        firstFree = Math.min(firstFree, numPages);
+        this.numPages = numPages;
+        if (mapFile.exists()) {
+            // so the pages are not found full if the file grows again
+            writeRange(numPages, end);
+            writeHeader();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        store.write(0, ByteBuffer.allocate(HEADER_SIZE).putInt(numPages).array());
+    }
+
+    /** Write the bytes holding the bits of pages from through to - 1. */
+    private void writeRange(int from, int to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        int first = from / 8;
+        byte[] bytes = new byte[(to - 1) / 8 - first + 1];
+        byte[] bits = full.get(first * 8, first * 8 + bytes.length * 8).toByteArray();
+        System.arraycopy(bits, 0, bytes, 0, bits.length);
+        store.write(HEADER_SIZE + first, bytes);
+    }
+
+    private void writeBits(int pgNo) throws IOException {
+        numPages = Math.max(numPages, pgNo + 1);
+        if (!mapFile.exists()) {
+            byte[] all = new byte[(numPages + 7) / 8];
+            byte[] bits = full.toByteArray();
+            System.arraycopy(bits, 0, all, 0, Math.min(bits.length, all.length));
+            store.write(HEADER_SIZE, all);
+            writeHeader();
+            return;
+        }
+        int index = pgNo / 8;
+        byte b = 0;
+        for (int i = 0; i < 8; i++) {
+            if (full.get(index * 8 + i)) {
+                b |= 1 << i;
+            }
+        }
+        store.write(HEADER_SIZE + index, new byte[] { b });
+    }
+}
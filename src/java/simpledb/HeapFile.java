@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -9,12 +11,27 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Inserts and deletes lock by row: they take IX locks on the pages they
+ * visit and X locks on the rows they change, so transactions writing
+ * different rows of the same page do not wait for each other. Scans still
+ * take S locks on whole pages, which keeps the lock table small for large
+ * scans and excludes the row writers of each page while it is read.
+ * <p>
+ * A {@link FreeSpaceMap} records which pages are full, so an insert goes
+ * to a page with room, and locks only that page, however large the file.
+ * <p>
+ * Large loads can instead go through {@link #bulkLoad}, which builds full
+ * pages itself and appends them to the file without the buffer pool.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** Number of pages bulkLoad collects before writing them out at once. */
+    public static final int BULK_LOAD_PAGES = 256;
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -24,15 +41,30 @@ public class HeapFile implements DbFile {
      */
     File f;
     TupleDesc td;
+    // reads and writes the pages of f
+    private final PageStore store;
+    // which pages are full, loaded by the first insert or delete
+    private FreeSpaceMap freeSpace;
 
     public class HeapIterator implements DbFileIterator{
         private TransactionId tid;
         private int pgNo;
 //        private HeapFile f;
         private Iterator<Tuple> iterator;
+        // pages before this one have been requested for read-ahead
+        private int readAheadTo;
+        // the page the iterator is on, pinned in the buffer pool
+        private HeapPageId pinned;
+        // ring pages are read into, or null
+        private final BufferRing ring;
 
         public HeapIterator(TransactionId tid){
+            this(tid, null);
+        }
+
+        public HeapIterator(TransactionId tid, BufferRing ring){
             this.tid = tid;
+            this.ring = ring;
 //            this.f = f;
 
         }
@@ -43,11 +75,11 @@ public class HeapFile implements DbFile {
             if(iterator.hasNext()){
                 return true;
             }
-            if(pgNo < numPages() - 1){
+            int numPages = numPages();
+            if(pgNo < numPages - 1){
                 pgNo = pgNo + 1;
-                HeapPageId heapPageId = new HeapPageId(getId(), pgNo);
-                Page page = Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
-                HeapPage heapPage = (HeapPage)page;
+                readAhead(numPages);
+                HeapPage heapPage = pinPage(pgNo);
                 iterator = heapPage.iterator();
                 return iterator.hasNext();
             }else{
@@ -58,9 +90,8 @@ public class HeapFile implements DbFile {
         public void open() throws TransactionAbortedException, DbException {
 //            pgNo = pgNo + 1;
             pgNo = 0;
-            HeapPageId heapPageId = new HeapPageId(getId(), pgNo);
-            Page page = Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
-            HeapPage heapPage = (HeapPage)page;
+            readAheadTo = 1;
+            HeapPage heapPage = pinPage(pgNo);
             iterator = heapPage.iterator();
 //            iterator = iterator1;
 
@@ -68,7 +99,53 @@ public class HeapFile implements DbFile {
 
         public void close(){
             iterator = null;
+            unpinCurrent();
+
+        }
+
+        /**
+         * Fetch page pgNo and pin it while the iterator is on it, releasing
+         * the pin on the previous page.
+         */
+        private HeapPage pinPage(int pgNo) throws TransactionAbortedException, DbException {
+            unpinCurrent();
+            HeapPageId heapPageId = new HeapPageId(getId(), pgNo);
+            BufferPool bufferPool = Database.getBufferPool();
+            bufferPool.pinPage(tid, heapPageId);
+            try {
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_ONLY, ring);
+                pinned = heapPageId;
+                return page;
+            } catch (TransactionAbortedException | DbException | RuntimeException e) {
+                bufferPool.unpinPage(tid, heapPageId);
+                throw e;
+            }
+        }
+
+        private void unpinCurrent() {
+            if (pinned != null) {
+                Database.getBufferPool().unpinPage(tid, pinned);
+                pinned = null;
+            }
+        }
 
+        /**
+         * The iterator only moves forward one page at a time, so once it
+         * has stepped to a second page it is known to be scanning. Keep the
+         * next K pages loading in the background, topping the window up
+         * when half of it has been consumed.
+         */
+        private void readAhead(int numPages) {
+            BufferPool bufferPool = Database.getBufferPool();
+            int window = bufferPool.getReadAheadPages();
+            if (window == 0 || readAheadTo - pgNo > window / 2) {
+                return;
+            }
+            int end = Math.min(pgNo + 1 + window, numPages);
+            for (int i = Math.max(readAheadTo, pgNo + 1); i < end; i++) {
+                bufferPool.prefetchPage(new HeapPageId(getId(), i), ring);
+            }
+            readAheadTo = Math.max(readAheadTo, end);
         }
 
         public Tuple next() throws TransactionAbortedException, DbException {
@@ -105,6 +182,7 @@ public class HeapFile implements DbFile {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.store = PageStore.get(f);
     }
 
     /**
@@ -117,6 +195,17 @@ public class HeapFile implements DbFile {
         return this.f;
     }
 
+    /**
+     * Serve page reads from memory mappings of the file rather than with
+     * read calls, for tables that are read much more than written. This
+     * applies to every HeapFile on the same file.
+     *
+     * @see PageStore#setMapped(boolean)
+     */
+    public void setMemoryMapped(boolean mapped) {
+        store.setMapped(mapped);
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -147,33 +236,79 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
         try {
-            RandomAccessFile RAF = new RandomAccessFile(this.f, "r");
             HeapPageId heapPageId = (HeapPageId)pid;
             byte[] bytes = new byte[BufferPool.getPageSize()];
-            RAF.seek(pid.getPageNumber() * BufferPool.getPageSize());
-            RAF.read(bytes, 0, BufferPool.getPageSize());
-            HeapPage heapPage = new HeapPage(heapPageId, bytes);
-            return heapPage;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            store.read((long) pid.getPageNumber() * BufferPool.getPageSize(), bytes);
+            return createPage(heapPageId, bytes);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    // see DbFile.java for javadocs
+    public List<Page> readPages(List<PageId> ids) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int first = ids.get(0).getPageNumber();
+        if (first < 0 || first + ids.size() > numPages()) {
+            throw new IllegalArgumentException("pages " + first + ".." + (first + ids.size() - 1)
+                    + " are not all in " + f);
+        }
+        byte[] bytes = new byte[ids.size() * pageSize];
+        if (store.read((long) first * pageSize, bytes) < bytes.length) {
+            throw new EOFException("short read of pages " + first + ".."
+                    + (first + ids.size() - 1) + " from " + f);
+        }
+        List<Page> pages = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            pages.add(createPage(ids.get(i), Arrays.copyOfRange(bytes, i * pageSize, (i + 1) * pageSize)));
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public Page createPage(PageId pid, byte[] data) throws IOException {
+        return new HeapPage((HeapPageId) pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        RandomAccessFile RAF = new RandomAccessFile(this.f,"rw");
-        HeapPageId pid = (HeapPageId)(page.getId());
-        int offset = BufferPool.getPageSize() * page.getId().getPageNumber();
-        byte[] bytes = new byte[BufferPool.getPageSize()];
-        bytes = page.getPageData();
-        RAF.seek(offset);
-        RAF.write(bytes);
-        RAF.close();
+        long offset = (long) BufferPool.getPageSize() * page.getId().getPageNumber();
+        store.write(offset, page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        ByteBuffer[] data = new ByteBuffer[pages.size()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = ByteBuffer.wrap(pages.get(i).getPageData());
+        }
+        store.write((long) BufferPool.getPageSize() * pages.get(0).getId().getPageNumber(), data);
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        store.force();
+    }
+
+    /**
+     * Pages that have room again once tid's changes are undone, such as one
+     * filled by an insert that aborted, are marked free in the free space map.
+     */
+    @Override
+    public void restorePages(TransactionId tid, List<PageId> pids, Function<PageId, Page> restore) {
+        for (PageId pid : pids) {
+            HeapPage page = (HeapPage) restore.apply(pid);
+            if (page != null && page.getNumEmptySlots() > 0) {
+                try {
+                    freeSpaceMap().markFree(pid.getPageNumber());
+                } catch (IOException e) {
+                    // the map is only a hint: the page is passed over until a delete frees it
+                }
+            }
+        }
     }
 
     /**
@@ -188,46 +323,215 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        ArrayList<Page> pages = new ArrayList<>();
-        int s = 0;
-        for(int i = 0; i < numPages(); i++){
+        BufferPool bufferPool = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        for(int i = fsm.findPage(0); ; i = fsm.findPage(i + 1)){
+            if(i >= numPages()){
+                appendEmptyPage(tid, i);
+            }
             HeapPageId pid = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            if(page.getNumEmptySlots() != 0){
-                page.insertTuple(t);
-                page.markDirty(true, tid);
+            bufferPool.pinPage(tid, pid);
+            try {
+                HeapPage page = (HeapPage) bufferPool.getPageForRows(tid, pid, Permissions.READ_WRITE, null);
+                int slot = page.reserveSlot(tid);
+                if(slot < 0){
+                    // slots freed by uncommitted deletes are not full for good
+                    if(page.getNumEmptySlots() == 0){
+                        fsm.markFull(i);
+                    }
+                    continue;
+                }
+                bufferPool.lockRecord(tid, new RecordId(pid, slot), Permissions.READ_WRITE);
+                page.insertTuple(t, slot, tid);
+                if(page.getNumEmptySlots() == 0){
+                    fsm.markFull(i);
+                }
+                ArrayList<Page> pages = new ArrayList<>();
                 pages.add(page);
-                break;
-            }else{
-                s++;
+                return pages;
+            } finally {
+                bufferPool.unpinPage(tid, pid);
             }
         }
-        if(s == numPages()){
-//            System.out.print(s);
-            HeapPageId pid = new HeapPageId(getId(), numPages());
-            byte[] b = new byte[BufferPool.getPageSize()];
-            HeapPage page = new HeapPage(pid,b);
-            page.insertTuple(t);
-            page.markDirty(false, tid);
-            writePage(page);
-            pages.add(page);
+        // not necessary for lab1
+    }
 
+    /**
+     * Add an empty page numbered pgNo at the end of the file, unless a
+     * concurrent insert has already added it. Rows are then inserted into
+     * it through the buffer pool like into any other page. The new page is
+     * logged as an extent of tid, and the log forced before it is written.
+     */
+    private synchronized void appendEmptyPage(TransactionId tid, int pgNo) throws IOException {
+        if (numPages() == pgNo) {
+            LogFile log = Database.getLogFile();
+            log.logExtend(tid, getId(), pgNo, 1);
+            log.force();
+            writePage(new HeapPage(new HeapPageId(getId(), pgNo), HeapPage.createEmptyPageData()));
+            freeSpaceMap().pageAdded(pgNo);
+        }
+    }
 
+    /**
+     * Returns the map of which pages are full, loading it on first use.
+     */
+    synchronized FreeSpaceMap freeSpaceMap() throws IOException {
+        if (freeSpace == null) {
+            freeSpace = new FreeSpaceMap(f, numPages());
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Append the tuples of child to this file on behalf of tid, packing
+     * them into full pages and writing {@link #BULK_LOAD_PAGES} pages at a
+     * time to the end of the file. The rows are not locked or passed
+     * through the buffer pool one by one: tid takes an exclusive lock on
+     * the whole table instead. Each batch is logged as one extent of new
+     * pages (see {@link LogFile#logExtend}), and the log is forced before
+     * the batch is written; the pages are forced to disk
+     * before this returns, so tid's commit makes them durable. If tid
+     * aborts, the file is cut back to where the load started. The free
+     * space map learns of the new pages only once tid has committed.
+     *
+     * @param tid the transaction loading the tuples
+     * @param child the tuples to load; opened and closed here
+     * @return the number of tuples loaded
+     * @throws DbException if a tuple does not match this file's tuple desc
+     */
+    public int bulkLoad(TransactionId tid, OpIterator child)
+            throws DbException, IOException, TransactionAbortedException {
+        child.open();
+        try {
+            return bulkLoad(tid, () -> child.hasNext() ? child.next() : null);
+        } finally {
+            child.close();
+        }
+    }
+
+    /**
+     * Append the lines of a delimited text file to this file as tuples, in
+     * the format {@link HeapFileEncoder} reads; otherwise like
+     * {@link #bulkLoad(TransactionId, OpIterator)}. Empty lines are skipped.
+     *
+     * @throws IOException if the text file cannot be read or a line in it
+     *   is malformed
+     */
+    public int bulkLoad(TransactionId tid, File in, char fieldSeparator)
+            throws DbException, IOException, TransactionAbortedException {
+        try (BufferedReader br = new BufferedReader(new FileReader(in))) {
+            return bulkLoad(tid, () -> {
+                String line;
+                do {
+                    line = br.readLine();
+                } while (line != null && line.trim().isEmpty());
+                return line == null ? null : HeapFileEncoder.parseTuple(line, td, fieldSeparator);
+            });
+        }
+    }
+
+    /** Where bulkLoad takes its tuples from. */
+    private interface TupleSource {
+        /** Returns the next tuple, or null if there are no more. */
+        Tuple next() throws DbException, IOException, TransactionAbortedException;
+    }
+
+    private int bulkLoad(TransactionId tid, TupleSource source)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.lockTable(tid, getId(), Permissions.READ_WRITE);
+        int pageSize = BufferPool.getPageSize();
+        int perPage = (pageSize * 8) / (td.getSize() * 8 + 1);
+        // inserts append one page at a time under the same monitor
+        synchronized (this) {
+            int start = numPages();
+            bufferPool.onAbort(tid, () -> truncate(start));
+            LogFile log = Database.getLogFile();
+            byte[] batch = new byte[BULK_LOAD_PAGES * pageSize];
+            int batched = 0;
+            int pgNo = start;
+            int count = 0;
+            List<Tuple> rows = new ArrayList<>(perPage);
+            for (Tuple t = source.next(); ; t = source.next()) {
+                if (t != null) {
+                    if (!td.equals(t.getTupleDesc())) {
+                        throw new DbException("tuple does not match the tuple desc of " + f);
+                    }
+                    rows.add(t);
+                    count++;
+                }
+                if (rows.size() == perPage || t == null && !rows.isEmpty()) {
+                    byte[] page = HeapFileEncoder.encodePage(rows, td, pageSize);
+                    System.arraycopy(page, 0, batch, batched * pageSize, pageSize);
+                    rows.clear();
+                    batched++;
+                }
+                if (batched == BULK_LOAD_PAGES || t == null && batched > 0) {
+                    // WAL: the extent record reaches disk before its pages
+                    log.logExtend(tid, getId(), pgNo, batched);
+                    log.force();
+                    store.write((long) pgNo * pageSize,
+                            batched == BULK_LOAD_PAGES ? batch : Arrays.copyOf(batch, batched * pageSize));
+                    pgNo += batched;
+                    batched = 0;
+                }
+                if (t == null) {
+                    break;
+                }
+            }
+            store.force();
+            if (pgNo > start) {
+                int end = pgNo;
+                int fullEnd = count % perPage == 0 ? pgNo : pgNo - 1;
+                bufferPool.onCommit(tid, () -> {
+                    FreeSpaceMap fsm = freeSpaceMap();
+                    fsm.markFull(start, fullEnd);
+                    fsm.pageAdded(end - 1);
+                });
+            }
+            return count;
         }
-        // not necessary for lab1
-        return pages;
+    }
+
+    /**
+     * Cut this file back to its first numPages pages, dropping the pages
+     * past them from the buffer pool. Undoes an aborted bulk load.
+     */
+    private synchronized void truncate(int numPages) throws IOException {
+        BufferPool bufferPool = Database.getBufferPool();
+        for (int i = numPages; i < numPages(); i++) {
+            bufferPool.discardPage(new HeapPageId(getId(), i));
+        }
+        store.truncate((long) numPages * BufferPool.getPageSize());
+        freeSpaceMap().truncated(numPages);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        HeapPageId pid = (HeapPageId)t.getRecordId().getPageId();
-        HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        RecordId rid = t.getRecordId();
+        if(rid == null){
+            throw new DbException("tuple has no record id");
+        }
+        HeapPageId pid = (HeapPageId) rid.getPageId();
+        BufferPool bufferPool = Database.getBufferPool();
+        bufferPool.pinPage(tid, pid);
+        try {
+            HeapPage page = (HeapPage) bufferPool.getPageForRows(tid, pid, Permissions.READ_WRITE, null);
+            bufferPool.lockRecord(tid, rid, Permissions.READ_WRITE);
+            page.deleteTuple(t, tid);
+            // the slot stays reserved for an undo until tid ends
+            int pgNo = pid.getPageNumber();
+            bufferPool.onCommit(tid, () -> freeSpaceMap().markFree(pgNo));
 
-        // not necessary for lab1
-        return new ArrayList<Page>();
+            // not necessary for lab1
+            ArrayList<Page> pages = new ArrayList<>();
+            pages.add(page);
+            return pages;
+        } finally {
+            bufferPool.unpinPage(tid, pid);
+        }
     }
 
     // see DbFile.java for javadocs
@@ -236,5 +540,10 @@ public class HeapFile implements DbFile {
         return new HeapIterator(tid);
     }
 
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return new HeapIterator(tid, ring);
+    }
+
 }
 
@@ -2,6 +2,9 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -223,4 +226,70 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Parse one line of a delimited text file, as convert does, into a
+   * tuple. Fields are trimmed, and strings longer than Type.STRING_LEN
+   * are cut short.
+   *
+   * @param line the line, without its line ending
+   * @param td the types of the fields
+   * @param fieldSeparator the character between fields
+   * @throws IOException if the line has the wrong number of fields or an
+   *   integer field does not parse
+   */
+  public static Tuple parseTuple(String line, TupleDesc td, char fieldSeparator) throws IOException {
+      String[] fields = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+      if (fields.length != td.numFields()) {
+          throw new IOException("expected " + td.numFields() + " fields: " + line);
+      }
+      Tuple t = new Tuple(td);
+      for (int i = 0; i < fields.length; i++) {
+          String s = fields[i].trim();
+          if (td.getFieldType(i) == Type.INT_TYPE) {
+              try {
+                  t.setField(i, new IntField(Integer.parseInt(s)));
+              } catch (NumberFormatException e) {
+                  throw new IOException("bad integer in field " + i + ": " + line);
+              }
+          } else {
+              t.setField(i, new StringField(s, Type.STRING_LEN));
+          }
+      }
+      return t;
+  }
+
+  /** Encode tuples as one page of a heap file, in the format convert
+   * writes: the header bits of the first tuples.size() slots set, the
+   * tuples in those slots and zeroes after them.
+   *
+   * @param tuples the tuples, no more than fit on a page
+   * @param td the tuple descriptor of the heap file
+   * @param npagebytes the number of bytes per page
+   * @return the page, npagebytes long
+   */
+  public static byte[] encodePage(List<Tuple> tuples, TupleDesc td, int npagebytes) throws IOException {
+      int nrecords = (npagebytes * 8) / (td.getSize() * 8 + 1);
+      if (tuples.size() > nrecords) {
+          throw new IllegalArgumentException(tuples.size() + " tuples do not fit on a page of " + nrecords);
+      }
+      int nheaderbytes = (nrecords + 7) / 8;
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+      DataOutputStream dos = new DataOutputStream(baos);
+      for (int i = 0; i < nheaderbytes; i++) {
+          int headerbyte = 0;
+          for (int bit = 0; bit < 8; bit++) {
+              if (i * 8 + bit < tuples.size())
+                  headerbyte |= 1 << bit;
+          }
+          dos.writeByte(headerbyte);
+      }
+      for (Tuple t : tuples) {
+          for (int i = 0; i < td.numFields(); i++) {
+              t.getField(i).serialize(dos);
+          }
+      }
+      dos.flush();
+      // pad the rest of the page with zeroes
+      return Arrays.copyOf(baos.toByteArray(), npagebytes);
+  }
 }
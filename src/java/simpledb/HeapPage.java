@@ -7,6 +7,13 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Several transactions may change rows of the same page at once, each
+ * holding X locks on its own rows (see {@link LockManager}). The page
+ * remembers every uncommitted row change by transaction, so a commit adds
+ * just that transaction's rows to the before image and an abort undoes
+ * just its rows in place. Slots with uncommitted changes are not handed out
+ * to inserts until their transaction ends.
  *
  * @see HeapFile
  * @see BufferPool
@@ -22,7 +29,28 @@ public class HeapPage implements Page {
     final int numSlots;
     boolean dirtyvalue;
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
+    // uncommitted row changes, in order, by transaction
+    private final LinkedHashMap<TransactionId, ArrayList<RowChange>> rowChanges = new LinkedHashMap<>();
+    // slots with an uncommitted change (including reservations)
+    private final BitSet pending = new BitSet();
+
+    /** One row change: the slot's tuple before and after, null if empty. */
+    private static class RowChange {
+        final int slot;
+        final Tuple before;
+        final Tuple after;
+
+        RowChange(int slot, Tuple before, Tuple after) {
+            this.slot = slot;
+            this.before = before;
+            this.after = after;
+        }
+
+        boolean isReservation() {
+            return before == null && after == null;
+        }
+    }
 
     public static class HeapPageIterator<Tuple> implements Iterator<Tuple>{
         List<Tuple> tupleList;
@@ -93,6 +121,11 @@ public class HeapPage implements Page {
 
     }
 
+    /** Return the number of tuple slots on this page. */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -184,7 +217,7 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
+    public synchronized byte[] getPageData() {
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -266,11 +299,11 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
         RecordId id = t.getRecordId();
-        if(id.getPageId() != pid){
+        if(id == null || !pid.equals(id.getPageId())){
             throw new DbException("cool");
         }
         if(!isSlotUsed(id.getTupleNumber())){
@@ -288,25 +321,154 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        if(getNumEmptySlots() == 0){
+        int slot = freeSlot();
+        if(slot < 0){
             throw new DbException("no place");
         }
         if(!td.equals(t.getTupleDesc())){
             throw new DbException("mismatch");
 
         }
-        int k1 = getNumEmptySlots();
-        int k2 = getNumTuples();
-        tuples[k2-k1] = t;
-        markSlotUsed(k2-k1, true);
-        RecordId id = new RecordId(pid, k2-k1);
-        t.setRecordId(id);
-//        tuples[getNumTuples()-getNumEmptySlots()] = t;
-//
-//        markSlotUsed();
+        setSlot(slot, t);
+    }
+
+    /**
+     * Reserve an empty slot for a row that tid is about to insert, so no
+     * other transaction takes it while tid locks the row.
+     *
+     * @return the slot, or -1 if every empty slot is in use by an
+     *   uncommitted change
+     */
+    public synchronized int reserveSlot(TransactionId tid) {
+        int slot = freeSlot();
+        if (slot >= 0) {
+            recordChange(tid, new RowChange(slot, null, null));
+        }
+        return slot;
+    }
+
+    /**
+     * Insert a tuple on behalf of tid into a slot it has reserved and
+     * locked, remembering the change until tid commits or aborts.
+     *
+     * @throws DbException if the slot is in use or the tupledesc mismatches
+     */
+    public synchronized void insertTuple(Tuple t, int slot, TransactionId tid) throws DbException {
+        if (isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " of " + pid + " is in use");
+        }
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("mismatch");
+        }
+        setSlot(slot, t);
+        recordChange(tid, new RowChange(slot, null, t));
+    }
+
+    /**
+     * Delete a tuple on behalf of tid, which holds an X lock on it,
+     * remembering the change until tid commits or aborts.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *   already empty
+     */
+    public synchronized void deleteTuple(Tuple t, TransactionId tid) throws DbException {
+        RecordId id = t.getRecordId();
+        Tuple before = id != null && id.getTupleNumber() >= 0 && id.getTupleNumber() < numSlots
+                ? tuples[id.getTupleNumber()] : null;
+        deleteTuple(t);
+        recordChange(tid, new RowChange(id.getTupleNumber(), before, null));
+    }
+
+    /** Return the first empty slot without an uncommitted change, or -1. */
+    private int freeSlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i) && !pending.get(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void setSlot(int slot, Tuple t) {
+        tuples[slot] = t;
+        markSlotUsed(slot, t != null);
+        if (t != null) {
+            t.setRecordId(new RecordId(pid, slot));
+        }
+    }
+
+    private void recordChange(TransactionId tid, RowChange change) {
+        rowChanges.computeIfAbsent(tid, k -> new ArrayList<>()).add(change);
+        pending.set(change.slot);
+        markDirty(true, tid);
+    }
+
+    /** The page stays dirty while any transaction has row changes on it. */
+    private void refreshDirty() {
+        if (rowChanges.isEmpty()) {
+            transactionId = null;
+            dirtyvalue = false;
+        } else {
+            transactionId = rowChanges.keySet().iterator().next();
+            dirtyvalue = true;
+        }
+    }
+
+    @Override
+    public synchronized boolean isDirtiedBy(TransactionId tid) {
+        return rowChanges.containsKey(tid) || tid.equals(isDirty());
+    }
+
+    /**
+     * Commit tid's changes. If tid changed rows, only those rows are added
+     * to the before image and the page stays dirty while other transactions
+     * have changes; otherwise the whole page becomes the before image.
+     */
+    @Override
+    public synchronized Page commitChanges(TransactionId tid) {
+        ArrayList<RowChange> mine = rowChanges.remove(tid);
+        if (mine == null) {
+            setBeforeImage();
+            refreshDirty();
+            return getBeforeImage();
+        }
+        HeapPage committed = getBeforeImage();
+        for (RowChange c : mine) {
+            if (!c.isReservation()) {
+                committed.setSlot(c.slot, c.after);
+            }
+            pending.clear(c.slot);
+        }
+        synchronized(oldDataLock)
+        {
+            oldData = committed.getPageData();
+        }
+        refreshDirty();
+        return committed;
+    }
+
+    /**
+     * Undo tid's changes. Row changes are undone in place, newest first;
+     * a page changed as a whole is replaced by its before image.
+     */
+    @Override
+    public synchronized Page abortChanges(TransactionId tid) {
+        ArrayList<RowChange> mine = rowChanges.remove(tid);
+        if (mine == null) {
+            return getBeforeImage();
+        }
+        for (int i = mine.size() - 1; i >= 0; i--) {
+            RowChange c = mine.get(i);
+            if (!c.isReservation()) {
+                setSlot(c.slot, c.before);
+            }
+            pending.clear(c.slot);
+        }
+        refreshDirty();
+        return this;
     }
 
 
@@ -314,15 +476,15 @@ public class HeapPage implements Page {
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
      */
-    public void markDirty(boolean dirty, TransactionId tid) {
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
         if(dirty){
             this.transactionId = tid;
             dirtyvalue = true;
         }else{
-            transactionId = null;
-            dirtyvalue = false;
+            // uncommitted row changes keep the page dirty
+            refreshDirty();
         }
     }
 
@@ -333,7 +495,7 @@ public class HeapPage implements Page {
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
-    public TransactionId isDirty() {
+    public synchronized TransactionId isDirty() {
         // some code goes here
 	// Not necessary for lab1
         if(dirtyvalue){
@@ -346,7 +508,7 @@ public class HeapPage implements Page {
     /**
      * Returns the number of empty slots on this page.
      */
-    public int getNumEmptySlots() {
+    public synchronized int getNumEmptySlots() {
         // some code goes here
         int num = 0;
         for(int i = 0; i < getNumTuples(); i++){
@@ -360,7 +522,7 @@ public class HeapPage implements Page {
     /**
      * Returns true if associated slot on this page is filled.
      */
-    public boolean isSlotUsed(int i) {
+    public synchronized boolean isSlotUsed(int i) {
         // some code goes here
         int num = i / 8;
         int fix = i % 8;
@@ -392,7 +554,7 @@ public class HeapPage implements Page {
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
-    public Iterator<Tuple> iterator() {
+    public synchronized Iterator<Tuple> iterator() {
         // some code goes here
         List<Tuple> tuple = new ArrayList<>();
         for(int i = 0; i < tuples.length; i++){
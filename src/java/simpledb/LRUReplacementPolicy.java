@@ -0,0 +1,46 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Least-recently-used replacement. Resident pages are kept in a linked list
+ * ordered by last access, so recording a hit and removing a page are O(1),
+ * and the victim is the least recently used page that is evictable.
+ *
+ * @see ReplacementPolicy
+ */
+public class LRUReplacementPolicy implements ReplacementPolicy {
+
+    // access-ordered: the head is the least recently used page
+    private final LinkedHashMap<PageId, Boolean> pages;
+
+    public LRUReplacementPolicy() {
+        pages = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void remove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        Iterator<PageId> it = pages.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<PageId> hottestFirst() {
+        ArrayList<PageId> hottest = new ArrayList<>(pages.keySet());
+        Collections.reverse(hottest);
+        return hottest;
+    }
+}
@@ -1,25 +1,35 @@
 package simpledb;
 
 public class Lock {
-    private boolean isread;//1为shared锁，2为exclusive锁
+    // changed only by the transaction holding the lock, when it upgrades
+    private volatile LockMode mode;
     private TransactionId tid;
-    private Permissions perm;
 
     public Lock(TransactionId tid, boolean isread, Permissions perm)
+    {
+        this(tid, isread ? LockMode.S : LockMode.of(perm));
+    }
+
+    public Lock(TransactionId tid, LockMode mode)
     {
         this.tid = tid;
-        this.isread = isread;
-        this.perm = perm;
+        this.mode = mode;
     }
 
+    /**
+     * Return true if this is a plain shared (S) lock. Intention locks are
+     * not shared locks; use {@link LockMode#compatibleWith} to decide whether
+     * two locks can be held together.
+     */
     public boolean is_shared()
     {
-        return this.isread;
+        return this.mode == LockMode.S;
     }
 
     public Permissions getPerm()
     {
-        return this.perm;
+        return this.mode == LockMode.X || this.mode == LockMode.IX || this.mode == LockMode.SIX
+                ? Permissions.READ_WRITE : Permissions.READ_ONLY;
     }
 
     public TransactionId getId()
@@ -27,13 +37,14 @@ public class Lock {
         return this.tid;
     }
 
-    public void setLockType(Permissions perm){
-        this.perm = perm;
+    public LockMode getMode()
+    {
+        return this.mode;
     }
 
-    public void modify(boolean modi)
+    public void setMode(LockMode mode)
     {
-        this.isread = modi;
+        this.mode = mode;
     }
 
     public boolean equals(Object o)
@@ -43,9 +54,12 @@ public class Lock {
             return false;
         }
         Lock lock = (Lock)o;
-        return tid.equals(lock.tid) && perm.equals(lock.perm) && (perm ==lock.perm);
+        return tid.equals(lock.tid) && mode == lock.mode;
     }
 
-
+    public int hashCode()
+    {
+        return tid.hashCode() * 31 + mode.hashCode();
+    }
 
 }
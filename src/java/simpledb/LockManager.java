@@ -0,0 +1,808 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * LockManager keeps the locks taken through {@link BufferPool} on tables,
+ * pages and rows. Locking is multi-granularity (see {@link LockMode}): a
+ * page lock comes with an intention lock on its table, and a row lock with
+ * intention locks on its page and table. So transactions writing different
+ * rows of one page only hold IX on the page and do not block each other,
+ * while a page or table S/X lock still excludes every conflicting row lock
+ * below it. Every table, page or row that is locked or waited for has a
+ * queue holding the locks granted on it and, in arrival order, the requests
+ * waiting for it.
+ * <p>
+ * The queues are kept in a table striped by hash, each stripe with its own
+ * latch, so requests for different resources rarely contend. Every
+ * transaction also keeps the locks it holds, so {@link #releaseTidlock}
+ * visits only those and the cost of a commit does not depend on how many
+ * locks other transactions have. Asking again for a lock already held is
+ * answered from there without taking any latch.
+ * <p>
+ * Large scans would otherwise pile up one lock per page. Once a
+ * transaction holds {@link #getEscalationThreshold} page and row locks
+ * under one table, they are escalated: the table is locked S (X if any of
+ * them was for writing) and the page and row locks are dropped, since the
+ * table lock covers them. Escalation never waits; if another transaction
+ * is in the way it is tried again after the next batch of locks.
+ * <p>
+ * A request that cannot be granted parks on its queue's condition and is
+ * woken when a lock on that resource is released or a waiter ahead of it
+ * gives up; nothing polls. Requests are granted in FIFO order, so a stream
+ * of readers cannot starve a writer, except that a transaction upgrading a
+ * lock it holds goes to the front of the queue.
+ * <p>
+ * Deadlocks are found with a waits-for graph: a waiting request waits for
+ * the transactions holding incompatible locks on its resource and for those
+ * with incompatible requests queued ahead of it. Whenever a request starts
+ * to wait the graph is searched for a cycle through the requester, and the
+ * youngest transaction on the cycle is aborted. Since every cycle is found
+ * when it closes, no deadlock lasts longer than that search. The search
+ * takes every stripe latch, in stripe order, so it sees a consistent graph.
+ * <p>
+ * Instead of detection, {@link #setDeadlockPolicy} can select wound-wait or
+ * wait-die (see {@link DeadlockPolicy}). Both only let transactions wait in
+ * one direction of start-time order, so no cycle can form and no search is
+ * needed. Under wait-die a doomed request is refused under its own stripe
+ * latch, without touching the rest of the lock table.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Default number of lock table stripes. */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * Default number of page and row locks on one table a transaction may
+     * hold before they are escalated to a table lock.
+     */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 256;
+
+    private final Stripe[] stripes;
+    // the locks each transaction holds, by the table, page or row locked
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Object, Lock>> held;
+    // the number of page and row locks each transaction holds, by table
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Integer, AtomicInteger>> fineLocks;
+    private volatile int escalationThreshold;
+    private volatile DeadlockPolicy policy;
+    // the waits-for graph: each transaction's waiting requests and their
+    // queues; changed only under the latch of the queue's stripe
+    private final ConcurrentHashMap<TransactionId, IdentityHashMap<Lock, LockQueue>> waiting;
+    // transactions chosen as deadlock victims, or wounded, that have not
+    // finished yet
+    private final Set<TransactionId> victims;
+    private final ToLongFunction<TransactionId> startTime;
+    private final BufferPoolStats stats;
+
+    /**
+     * @param stats counts lock waits, or null
+     */
+    public LockManager(BufferPoolStats stats) {
+        this(stats, null);
+    }
+
+    /**
+     * @param stats counts lock waits, or null
+     * @param startTime when each transaction started, used to pick the
+     *   youngest transaction as deadlock victim; null to go by the
+     *   ids of their first attempts (see {@link TransactionId#getFirstId})
+     */
+    public LockManager(BufferPoolStats stats, ToLongFunction<TransactionId> startTime) {
+        this(DEFAULT_STRIPES, stats, startTime);
+    }
+
+    /**
+     * @param numStripes number of lock table stripes
+     * @param stats counts lock waits, or null
+     * @param startTime when each transaction started, used to pick the
+     *   youngest transaction as deadlock victim; null to go by the
+     *   ids of their first attempts (see {@link TransactionId#getFirstId})
+     */
+    public LockManager(int numStripes, BufferPoolStats stats,
+                       ToLongFunction<TransactionId> startTime) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("numStripes must be positive");
+        }
+        this.stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.held = new ConcurrentHashMap<>();
+        this.fineLocks = new ConcurrentHashMap<>();
+        this.escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+        this.policy = DeadlockPolicy.DETECT;
+        this.waiting = new ConcurrentHashMap<>();
+        this.victims = ConcurrentHashMap.newKeySet();
+        this.startTime = startTime;
+        this.stats = stats;
+    }
+
+    /**
+     * Lock a page for a transaction, waiting for as long as it takes.
+     *
+     * @see #acquire(TransactionId, PageId, Permissions, long)
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        acquire(tid, pid, perm, Long.MAX_VALUE);
+    }
+
+    /**
+     * Lock a page for a transaction, waiting until the lock can be granted.
+     * The page's table is locked in the matching intention mode first.
+     * Asking for a lock the transaction already holds (or a shared lock on
+     * a page it holds exclusively) returns at once.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for exclusive
+     * @param timeoutMs longest time to wait
+     * @throws TransactionAbortedException if the lock was not granted in
+     *   time, the transaction was picked as a deadlock victim, or the
+     *   waiting thread was interrupted
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm, long timeoutMs)
+            throws TransactionAbortedException {
+        int table = pid.getTableId();
+        if (coveredByTable(tid, table, perm)) {
+            return;
+        }
+        lock(tid, new TableKey(table), LockMode.intentionFor(perm), timeoutMs);
+        if (lock(tid, pid, LockMode.of(perm), timeoutMs)) {
+            countFineLock(tid, table);
+        }
+    }
+
+    /**
+     * Take intention locks on a page and its table, waiting for as long as
+     * it takes; the transaction then locks the rows it reads or writes.
+     *
+     * @see #acquire(TransactionId, PageId, Permissions, long)
+     */
+    public void acquireIntention(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        acquireIntention(tid, pid, perm, Long.MAX_VALUE);
+    }
+
+    /**
+     * Take intention locks on a page and its table: IS for READ_ONLY, IX
+     * for READ_WRITE.
+     *
+     * @see #acquire(TransactionId, PageId, Permissions, long)
+     */
+    public void acquireIntention(TransactionId tid, PageId pid, Permissions perm, long timeoutMs)
+            throws TransactionAbortedException {
+        int table = pid.getTableId();
+        if (coveredByTable(tid, table, perm)) {
+            return;
+        }
+        LockMode intention = LockMode.intentionFor(perm);
+        lock(tid, new TableKey(table), intention, timeoutMs);
+        if (lock(tid, pid, intention, timeoutMs)) {
+            countFineLock(tid, table);
+        }
+    }
+
+    /**
+     * Lock a row for a transaction, waiting for as long as it takes.
+     *
+     * @see #acquire(TransactionId, RecordId, Permissions, long)
+     */
+    public void acquire(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        acquire(tid, rid, perm, Long.MAX_VALUE);
+    }
+
+    /**
+     * Lock a row for a transaction, taking intention locks on its page and
+     * table first.
+     *
+     * @see #acquire(TransactionId, PageId, Permissions, long)
+     */
+    public void acquire(TransactionId tid, RecordId rid, Permissions perm, long timeoutMs)
+            throws TransactionAbortedException {
+        int table = rid.getPageId().getTableId();
+        if (coveredByTable(tid, table, perm)) {
+            return;
+        }
+        acquireIntention(tid, rid.getPageId(), perm, timeoutMs);
+        // escalation may have just made the row lock unnecessary
+        if (!coveredByTable(tid, table, perm) && lock(tid, rid, LockMode.of(perm), timeoutMs)) {
+            countFineLock(tid, table);
+        }
+    }
+
+    /**
+     * Lock a whole table for a transaction, waiting for as long as it takes:
+     * S for READ_ONLY, X for READ_WRITE. The table lock covers every page
+     * and row of the table, so none of them need locking afterwards.
+     *
+     * @see #acquire(TransactionId, PageId, Permissions, long)
+     */
+    public void acquireTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        lock(tid, new TableKey(tableId), LockMode.of(perm), Long.MAX_VALUE);
+    }
+
+    /**
+     * Lock a page like {@link #acquire(TransactionId, PageId, Permissions,
+     * long)}, but only if that can be done without waiting.
+     *
+     * @return true if the lock is now held; false if another transaction
+     *   holds or waits for a conflicting lock
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm) {
+        int table = pid.getTableId();
+        if (coveredByTable(tid, table, perm)) {
+            return true;
+        }
+        if (!tryLock(tid, new TableKey(table), LockMode.intentionFor(perm))) {
+            return false;
+        }
+        boolean had = modeOf(tid, pid) != null;
+        if (!tryLock(tid, pid, LockMode.of(perm))) {
+            return false;
+        }
+        if (!had) {
+            countFineLock(tid, table);
+        }
+        return true;
+    }
+
+    /** Return true if the transaction's lock on a table covers perm on all of it. */
+    private boolean coveredByTable(TransactionId tid, int table, Permissions perm) {
+        LockMode mode = modeOf(tid, new TableKey(table));
+        return mode != null && mode.covers(LockMode.of(perm));
+    }
+
+    /**
+     * Count a new page or row lock under a table, and escalate to a table
+     * lock every time another threshold's worth has been taken.
+     */
+    private void countFineLock(TransactionId tid, int table) {
+        int n = fineLocks.computeIfAbsent(tid, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(table, t -> new AtomicInteger()).incrementAndGet();
+        int threshold = escalationThreshold;
+        if (threshold > 0 && n % threshold == 0) {
+            escalate(tid, table);
+        }
+    }
+
+    /**
+     * Try to replace a transaction's page and row locks under a table by
+     * one table lock: S if all of them are for reading, X otherwise.
+     */
+    private void escalate(TransactionId tid, int table) {
+        ConcurrentHashMap<Object, Lock> locks = held.get(tid);
+        if (locks == null) {
+            return;
+        }
+        LockMode mode = LockMode.S;
+        for (Map.Entry<Object, Lock> e : locks.entrySet()) {
+            if (!(e.getKey() instanceof TableKey) && tableOf(e.getKey()) == table
+                    && !LockMode.S.covers(e.getValue().getMode())) {
+                mode = LockMode.X;
+                break;
+            }
+        }
+        if (!tryLock(tid, new TableKey(table), mode)) {
+            return;
+        }
+        int released = 0;
+        for (Object key : locks.keySet()) {
+            if (tableOf(key) == table && !(key instanceof TableKey)) {
+                locks.remove(key);
+                release(tid, key);
+                released++;
+            }
+        }
+        fineLocks.get(tid).remove(table);
+        if (stats != null) {
+            stats.recordLockEscalation();
+        }
+        Debug.log("escalated %d locks of %s on table %d to %s", released, tid, table, mode);
+    }
+
+    /** Return the table a lock table key belongs to. */
+    private static int tableOf(Object key) {
+        if (key instanceof PageId) {
+            return ((PageId) key).getTableId();
+        }
+        if (key instanceof RecordId) {
+            return ((RecordId) key).getPageId().getTableId();
+        }
+        return ((TableKey) key).tableId;
+    }
+
+    /**
+     * Lock a table, page or row in the given mode (or upgrade to it) only
+     * if that can be done without waiting.
+     *
+     * @return true if the lock is now held
+     */
+    private boolean tryLock(TransactionId tid, Object key, LockMode mode) {
+        Stripe stripe = stripeFor(key);
+        stripe.latch.lock();
+        try {
+            LockQueue q = stripe.queues.computeIfAbsent(key, k -> new LockQueue(stripe.latch));
+            Lock mine = q.heldBy(tid);
+            if (mine != null && mine.getMode().covers(mode)) {
+                return true;
+            }
+            Lock request = new Lock(tid, mine == null ? mode : mine.getMode().join(mode));
+            if (mine != null) {
+                q.waiting.addFirst(request);
+            } else {
+                q.waiting.addLast(request);
+            }
+            if (!q.grantable(request)) {
+                q.waiting.removeIf(l -> l == request);
+                stripe.dropIfUnused(key, q);
+                return false;
+            }
+            Lock granted = q.grant(request, mine);
+            held.computeIfAbsent(tid, t -> new ConcurrentHashMap<>()).put(key, granted);
+            return true;
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /** Set the escalation threshold; 0 turns escalation off. */
+    public void setEscalationThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        this.escalationThreshold = threshold;
+    }
+
+    /** Return the escalation threshold, or 0 if escalation is off. */
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /** Set how deadlocks are dealt with; the default is detection. */
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        this.policy = policy;
+    }
+
+    /** Return how deadlocks are dealt with. */
+    public DeadlockPolicy getDeadlockPolicy() {
+        return policy;
+    }
+
+    /**
+     * Lock one table, page or row in the given mode, or in the join of that
+     * mode and the one the transaction already holds. A transaction chosen
+     * as a victim is refused any lock it does not hold yet.
+     *
+     * @return true if the transaction did not hold this lock before
+     */
+    private boolean lock(TransactionId tid, Object key, LockMode mode, long timeoutMs)
+            throws TransactionAbortedException {
+        ConcurrentHashMap<Object, Lock> locks = held.get(tid);
+        Lock mine = locks == null ? null : locks.get(key);
+        if (mine != null && mine.getMode().covers(mode)) {
+            return false;
+        }
+        if (victims.contains(tid)) {
+            throw new TransactionAbortedException();
+        }
+        DeadlockPolicy policy = this.policy;
+        Stripe stripe = stripeFor(key);
+        stripe.latch.lock();
+        try {
+            LockQueue q = stripe.queues.computeIfAbsent(key, k -> new LockQueue(stripe.latch));
+            mine = q.heldBy(tid);
+            if (mine != null && mine.getMode().covers(mode)) {
+                return false;
+            }
+            Lock request = new Lock(tid, mine == null ? mode : mine.getMode().join(mode));
+            if (mine != null) {
+                // upgrades go first: the transaction already holds the lock
+                q.waiting.addFirst(request);
+            } else {
+                q.waiting.addLast(request);
+            }
+            if (!q.grantable(request)) {
+                if (policy == DeadlockPolicy.WAIT_DIE && blockedByOlder(q, request)) {
+                    giveUp(stripe, q, key, request);
+                    throw new TransactionAbortedException();
+                }
+                waiting.compute(tid, (t, requests) -> {
+                    if (requests == null) {
+                        requests = new IdentityHashMap<>();
+                    }
+                    requests.put(request, q);
+                    return requests;
+                });
+                try {
+                    // the search takes every latch in order, ours included
+                    stripe.latch.unlock();
+                    try {
+                        if (policy == DeadlockPolicy.DETECT) {
+                            breakDeadlock(tid);
+                        } else if (policy == DeadlockPolicy.WOUND_WAIT) {
+                            wound(tid);
+                        }
+                    } finally {
+                        stripe.latch.lock();
+                    }
+                    await(stripe, q, key, request, timeoutMs);
+                } finally {
+                    waiting.computeIfPresent(tid, (t, requests) -> {
+                        requests.remove(request);
+                        return requests.isEmpty() ? null : requests;
+                    });
+                }
+            }
+            Lock granted = q.grant(request, mine);
+            held.computeIfAbsent(tid, t -> new ConcurrentHashMap<>()).put(key, granted);
+            return mine == null;
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /** Park until request is grantable; the stripe latch is held. */
+    private void await(Stripe stripe, LockQueue q, Object key, Lock request, long timeoutMs)
+            throws TransactionAbortedException {
+        long start = System.currentTimeMillis();
+        long left = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            while (!q.grantable(request)) {
+                if (left <= 0 || victims.contains(request.getId())) {
+                    giveUp(stripe, q, key, request);
+                    throw new TransactionAbortedException();
+                }
+                left = q.changed.awaitNanos(left);
+            }
+        } catch (InterruptedException e) {
+            giveUp(stripe, q, key, request);
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            if (stats != null) {
+                stats.recordLockWait(System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Look for waits-for cycles through a transaction that has just started
+     * to wait, and mark the youngest transaction on each as a victim, waking
+     * it up if it is parked. No stripe latch may be held by the caller.
+     */
+    private void breakDeadlock(TransactionId tid) {
+        for (Stripe stripe : stripes) {
+            stripe.latch.lock();
+        }
+        try {
+            // a request blocked by several transactions can close several
+            // cycles at once; victims no longer count, so break them all
+            List<TransactionId> cycle;
+            while ((cycle = findCycle(tid)) != null) {
+                TransactionId victim = cycle.get(0);
+                for (TransactionId t : cycle) {
+                    if (isYounger(t, victim)) {
+                        victim = t;
+                    }
+                }
+                Debug.log("deadlock among %s, aborting %s", cycle, victim);
+                victims.add(victim);
+                for (LockQueue theirs : waiting.get(victim).values()) {
+                    theirs.changed.signalAll();
+                }
+            }
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wound-wait: mark every younger transaction a just-queued request of
+     * tid waits for as a victim, waking it up if it is parked. No stripe
+     * latch may be held by the caller.
+     */
+    private void wound(TransactionId tid) {
+        for (Stripe stripe : stripes) {
+            stripe.latch.lock();
+        }
+        try {
+            for (TransactionId t : waitsFor(tid)) {
+                if (isYounger(t, tid) && victims.add(t)) {
+                    Debug.log("%s wounds %s", tid, t);
+                    IdentityHashMap<Lock, LockQueue> theirs = waiting.get(t);
+                    if (theirs != null) {
+                        for (LockQueue q : theirs.values()) {
+                            q.changed.signalAll();
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].latch.unlock();
+            }
+        }
+    }
+
+    /** Wait-die: return true if request waits for an older transaction. */
+    private boolean blockedByOlder(LockQueue q, Lock request) {
+        Set<TransactionId> blockers = new HashSet<>();
+        q.addBlockers(request, blockers);
+        for (TransactionId t : blockers) {
+            if (isYounger(request.getId(), t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isYounger(TransactionId a, TransactionId b) {
+        if (startTime != null) {
+            long sa = startTime.applyAsLong(a);
+            long sb = startTime.applyAsLong(b);
+            if (sa != sb) {
+                return sa > sb;
+            }
+        }
+        if (a.getFirstId() != b.getFirstId()) {
+            return a.getFirstId() > b.getFirstId();
+        }
+        return a.getId() > b.getId();
+    }
+
+    /**
+     * Return the transactions on a waits-for cycle through tid, starting
+     * with tid, or null if there is none. Victims that are about to give
+     * up no longer count as waiting.
+     */
+    private List<TransactionId> findCycle(TransactionId tid) {
+        LinkedHashSet<TransactionId> path = new LinkedHashSet<>();
+        return reaches(tid, tid, path, new HashSet<>()) ? new ArrayList<>(path) : null;
+    }
+
+    private boolean reaches(TransactionId from, TransactionId target,
+                            LinkedHashSet<TransactionId> path, HashSet<TransactionId> done) {
+        path.add(from);
+        for (TransactionId next : waitsFor(from)) {
+            if (next.equals(target)) {
+                return true;
+            }
+            if (!path.contains(next) && !done.contains(next) && reaches(next, target, path, done)) {
+                return true;
+            }
+        }
+        path.remove(from);
+        done.add(from);
+        return false;
+    }
+
+    /** Return the transactions tid is waiting for. */
+    private Set<TransactionId> waitsFor(TransactionId tid) {
+        IdentityHashMap<Lock, LockQueue> requests = waiting.get(tid);
+        if (requests == null || victims.contains(tid)) {
+            return Collections.emptySet();
+        }
+        Set<TransactionId> blockers = new HashSet<>();
+        for (Map.Entry<Lock, LockQueue> e : requests.entrySet()) {
+            e.getValue().addBlockers(e.getKey(), blockers);
+        }
+        return blockers;
+    }
+
+    private void giveUp(Stripe stripe, LockQueue q, Object key, Lock request) {
+        q.waiting.removeIf(l -> l == request);
+        // requests behind this one may be grantable now
+        q.changed.signalAll();
+        stripe.dropIfUnused(key, q);
+    }
+
+    /**
+     * Release the lock a transaction holds on a page, if any. Its locks on
+     * the table and on rows of the page are kept.
+     */
+    public void releasePage(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<Object, Lock> locks = held.get(tid);
+        if (locks != null && locks.remove(pid) != null) {
+            ConcurrentHashMap<Integer, AtomicInteger> counts = fineLocks.get(tid);
+            AtomicInteger n = counts == null ? null : counts.get(pid.getTableId());
+            if (n != null) {
+                n.decrementAndGet();
+            }
+        }
+        release(tid, pid);
+    }
+
+    /** Release every lock a transaction holds. */
+    public void releaseTidlock(TransactionId tid) {
+        fineLocks.remove(tid);
+        ConcurrentHashMap<Object, Lock> locks = held.remove(tid);
+        if (locks != null) {
+            for (Object key : locks.keySet()) {
+                release(tid, key);
+            }
+        }
+        // last, so a wound inflicted while the locks were held is not kept
+        victims.remove(tid);
+    }
+
+    private void release(TransactionId tid, Object key) {
+        Stripe stripe = stripeFor(key);
+        stripe.latch.lock();
+        try {
+            LockQueue q = stripe.queues.get(key);
+            if (q != null && q.granted.removeIf(l -> l.getId().equals(tid))) {
+                q.changed.signalAll();
+                stripe.dropIfUnused(key, q);
+            }
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Return true if the transaction holds a lock, of any mode, on the page,
+     * or a table lock covering it.
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        return modeOf(tid, pid) != null || coveredByTable(tid, pid.getTableId(), Permissions.READ_ONLY);
+    }
+
+    /** Return true if the transaction holds a lock on the row, or a table lock covering it. */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        return modeOf(tid, rid) != null
+                || coveredByTable(tid, rid.getPageId().getTableId(), Permissions.READ_ONLY);
+    }
+
+    /** Return the mode the transaction holds the page in, or null. */
+    public LockMode lockMode(TransactionId tid, PageId pid) {
+        return modeOf(tid, pid);
+    }
+
+    /** Return the mode the transaction holds the row in, or null. */
+    public LockMode lockMode(TransactionId tid, RecordId rid) {
+        return modeOf(tid, rid);
+    }
+
+    /** Return the mode the transaction holds the table in, or null. */
+    public LockMode tableLockMode(TransactionId tid, int tableId) {
+        return modeOf(tid, new TableKey(tableId));
+    }
+
+    private LockMode modeOf(TransactionId tid, Object key) {
+        ConcurrentHashMap<Object, Lock> locks = held.get(tid);
+        Lock l = locks == null ? null : locks.get(key);
+        return l == null ? null : l.getMode();
+    }
+
+    private Stripe stripeFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+
+    /** The lock table key of a whole table. */
+    private static final class TableKey {
+        private final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(tableId) * 0x9e3779b9;
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /** One stripe of the lock table and the latch guarding its queues. */
+    private static class Stripe {
+        private final ReentrantLock latch = new ReentrantLock();
+        private final HashMap<Object, LockQueue> queues = new HashMap<>();
+
+        void dropIfUnused(Object key, LockQueue q) {
+            if (q.granted.isEmpty() && q.waiting.isEmpty()) {
+                queues.remove(key, q);
+            }
+        }
+    }
+
+    /** The granted locks and waiting requests of one table, page or row. */
+    private static class LockQueue {
+        private final ArrayList<Lock> granted = new ArrayList<>();
+        private final ArrayDeque<Lock> waiting = new ArrayDeque<>();
+        private final Condition changed;
+
+        LockQueue(ReentrantLock latch) {
+            this.changed = latch.newCondition();
+        }
+
+        Lock heldBy(TransactionId tid) {
+            for (Lock l : granted) {
+                if (l.getId().equals(tid)) {
+                    return l;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * A waiting request can be granted when it is compatible with the
+         * locks other transactions hold and with every request queued
+         * ahead of it, so compatible requests at the head go through
+         * together.
+         */
+        boolean grantable(Lock request) {
+            for (Lock l : granted) {
+                if (!l.getId().equals(request.getId())
+                        && !l.getMode().compatibleWith(request.getMode())) {
+                    return false;
+                }
+            }
+            for (Lock l : waiting) {
+                if (l == request) {
+                    break;
+                }
+                if (!l.getMode().compatibleWith(request.getMode())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Add the transactions that keep request from being granted. */
+        void addBlockers(Lock request, Set<TransactionId> blockers) {
+            for (Lock l : granted) {
+                if (!l.getId().equals(request.getId())
+                        && !l.getMode().compatibleWith(request.getMode())) {
+                    blockers.add(l.getId());
+                }
+            }
+            for (Lock l : waiting) {
+                if (l == request) {
+                    break;
+                }
+                if (!l.getId().equals(request.getId())
+                        && !l.getMode().compatibleWith(request.getMode())) {
+                    blockers.add(l.getId());
+                }
+            }
+        }
+
+        /** Grant a request, upgrading held if the transaction had a lock. */
+        Lock grant(Lock request, Lock held) {
+            waiting.removeIf(l -> l == request);
+            if (held != null) {
+                held.setMode(request.getMode());
+                return held;
+            }
+            granted.add(request);
+            return request;
+        }
+    }
+}
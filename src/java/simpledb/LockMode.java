@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * The modes of the locks kept by {@link LockManager}. Tables and pages can
+ * be locked in any mode; rows only in S or X. Before a transaction locks a
+ * page or row it takes an intention lock on everything above it: IS under
+ * S locks, IX under X locks.
+ */
+public enum LockMode {
+    /** Intention shared: some rows below will be read. */
+    IS,
+    /** Intention exclusive: some rows below will be written. */
+    IX,
+    /** Shared: everything below may be read. */
+    S,
+    /** Shared with intention exclusive: S plus IX. */
+    SIX,
+    /** Exclusive: everything below may be written. */
+    X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //        IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /** Return true if two transactions can hold this mode and other at once. */
+    public boolean compatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** Return true if holding this mode implies holding other. */
+    public boolean covers(LockMode other) {
+        switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+                return other == S || other == IS;
+            case IX:
+                return other == IX || other == IS;
+            default:
+                return other == IS;
+        }
+    }
+
+    /** Return the weakest mode that covers both this mode and other. */
+    public LockMode join(LockMode other) {
+        if (covers(other)) {
+            return this;
+        }
+        if (other.covers(this)) {
+            return other;
+        }
+        // only S and IX (or SIX with either) are left incomparable
+        return (this == X || other == X) ? X : SIX;
+    }
+
+    /** Return the shared or exclusive mode for a permission. */
+    public static LockMode of(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? X : S;
+    }
+
+    /** Return the intention mode taken above a lock for a permission. */
+    public static LockMode intentionFor(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? IX : IS;
+    }
+}
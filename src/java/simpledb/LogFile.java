@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and EXTEND
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +61,12 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> EXTEND records describe pages a transaction appended to a table
+without passing them through the buffer pool: an integer table id, the
+integer number of the first page, and an integer page count.  Undoing
+one cuts the table back to its first page; there is no page data to
+redo, so the pages must be forced before the transaction commits.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -82,6 +88,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int EXTEND_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -218,6 +225,29 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write an EXTEND record to the log for the specified transaction:
+        it appended numPages pages to a table, starting at firstPage.
+        Used instead of an UPDATE record per page for pages that were
+        empty space before, such as those written by a bulk load.
+
+        @param tid The transaction that appended the pages
+        @param tableId The table the pages were appended to
+        @param firstPage The number of the first page appended
+        @param numPages The number of pages appended
+    */
+    public synchronized void logExtend(TransactionId tid, int tableId,
+                                       int firstPage, int numPages)
+        throws IOException {
+        preAppend();
+        raf.writeInt(EXTEND_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -416,6 +446,11 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case EXTEND_RECORD:
+                    for (int i = 0; i < 3; i++) {
+                        logNew.writeInt(raf.readInt());
+                    }
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -56,4 +56,33 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Return true if the given transaction has uncommitted changes on this
+     * page. Pages that several transactions can change at once override
+     * this, as {@link HeapPage} does.
+     */
+    public default boolean isDirtiedBy(TransactionId tid) {
+        return tid.equals(isDirty());
+    }
+
+    /**
+     * The given transaction is committing: make its changes part of the
+     * before image and return that image, which is what gets written out.
+     * By default the whole page becomes the before image and is clean.
+     */
+    public default Page commitChanges(TransactionId tid) {
+        setBeforeImage();
+        markDirty(false, null);
+        return getBeforeImage();
+    }
+
+    /**
+     * The given transaction is aborting: undo its changes and return the
+     * page the buffer pool should keep. By default that is the before
+     * image.
+     */
+    public default Page abortChanges(TransactionId tid) {
+        return getBeforeImage();
+    }
 }
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PageCleaner writes page images to their data files for the buffer pool.
+ * The images are sorted by table and page number, and each run of
+ * consecutive pages of a file goes out in one gathering write (see {@link
+ * DbFile#writePages}), so a commit that dirtied neighbouring pages costs
+ * one write per run rather than one per page.
+ * <p>
+ * The cleaner does not log anything itself: callers log the updates and
+ * force the log before handing the pages over. Writes are serialized, so
+ * two writes of the same page never overlap.
+ *
+ * @Threadsafe
+ * @see BufferPool#flushPages(TransactionId)
+ */
+public class PageCleaner {
+
+    // held while writing to data files, so writes of a location never overlap
+    private final Object ioLock;
+
+    private final BufferPoolStats stats;
+
+    public PageCleaner() {
+        this(null);
+    }
+
+    /**
+     * Creates a cleaner.
+     *
+     * @param stats counts the pages written, or null
+     */
+    public PageCleaner(BufferPoolStats stats) {
+        this.stats = stats;
+        ioLock = new Object();
+    }
+
+    private static long location(PageId pid) {
+        return ((long) pid.getTableId() << 32) | (pid.getPageNumber() & 0xffffffffL);
+    }
+
+    /**
+     * Write pages now, in table and page number order and each run of
+     * consecutive pages of a file with one call. The caller is responsible
+     * for having logged and forced the updates.
+     *
+     * @return the files written to
+     */
+    public Set<DbFile> writeThrough(Collection<Page> pages) throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingLong(p -> location(p.getId())));
+        Set<DbFile> files = new LinkedHashSet<>();
+        synchronized (ioLock) {
+            int start = 0;
+            while (start < sorted.size()) {
+                int end = start + 1;
+                while (end < sorted.size()
+                        && location(sorted.get(end).getId()) == location(sorted.get(end - 1).getId()) + 1) {
+                    end++;
+                }
+                List<Page> run = sorted.subList(start, end);
+                DbFile file = Database.getCatalog().getDatabaseFile(run.get(0).getId().getTableId());
+                file.writePages(run);
+                files.add(file);
+                if (stats != null) {
+                    for (int i = start; i < end; i++) {
+                        stats.recordPageWrite();
+                    }
+                }
+                start = end;
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A fixed pool of page-sized frames allocated off the Java heap in direct
+ * ByteBuffers. The BufferPool uses it as a second cache tier: clean pages
+ * pushed out of the on-heap page table are parked here as raw bytes, and a
+ * later miss on the same page is served from the frame instead of the
+ * data file. Because frames hold no Java objects, a large arena adds
+ * nothing to garbage collection work.
+ * <p>
+ * A page lives in at most one tier at a time: {@link #take} hands the bytes
+ * back and frees the frame. When the arena is full, frames are recycled in
+ * CLOCK order.
+ * <p>
+ * Not thread safe; callers serialize access.
+ */
+public class PageFrameArena {
+
+    /** Largest single direct buffer the arena allocates. */
+    private static final int MAX_SLAB_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int framesPerSlab;
+    private final ByteBuffer[] slabs;
+
+    private final PageId[] owner;
+    private final int[] length;
+    private final boolean[] referenced;
+    private final HashMap<PageId, Integer> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private int hand;
+
+    /**
+     * @param numFrames number of frames in the arena
+     * @param frameSize bytes per frame; pages larger than this are not kept
+     */
+    public PageFrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        this.framesPerSlab = Math.max(1, MAX_SLAB_BYTES / frameSize);
+        int numSlabs = (numFrames + framesPerSlab - 1) / framesPerSlab;
+        slabs = new ByteBuffer[numSlabs];
+        for (int i = 0; i < numSlabs; i++) {
+            int frames = Math.min(framesPerSlab, numFrames - i * framesPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        owner = new PageId[numFrames];
+        length = new int[numFrames];
+        referenced = new boolean[numFrames];
+        frameOf = new HashMap<>();
+        freeFrames = new ArrayDeque<>();
+        for (int i = 0; i < numFrames; i++) {
+            freeFrames.add(i);
+        }
+        hand = 0;
+    }
+
+    /** Return the number of frames in this arena. */
+    public int numFrames() {
+        return owner.length;
+    }
+
+    /** Return the number of frames currently holding a page. */
+    public int size() {
+        return frameOf.size();
+    }
+
+    public boolean contains(PageId pid) {
+        return frameOf.containsKey(pid);
+    }
+
+    /**
+     * Copy a page image into a frame, replacing any image already kept for
+     * the same page and recycling the coldest frame if none is free.
+     *
+     * @param pid the page the image belongs to
+     * @param data the page image
+     * @return false if the image does not fit in a frame or the arena has
+     *   no frames
+     */
+    public boolean put(PageId pid, byte[] data) {
+        if (data.length > frameSize || owner.length == 0) {
+            return false;
+        }
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            frame = freeFrames.isEmpty() ? recycleFrame() : freeFrames.poll();
+            owner[frame] = pid;
+            frameOf.put(pid, frame);
+        }
+        ByteBuffer view = frameView(frame);
+        view.put(data);
+        length[frame] = data.length;
+        referenced[frame] = true;
+        return true;
+    }
+
+    /**
+     * Remove the image of a page from the arena.
+     *
+     * @return a copy of the image, or null if the page is not kept here
+     */
+    public byte[] take(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null) {
+            return null;
+        }
+        byte[] data = new byte[length[frame]];
+        frameView(frame).get(data);
+        freeFrame(frame);
+        return data;
+    }
+
+    /** Drop the image of a page, if any. */
+    public void remove(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            freeFrame(frame);
+        }
+    }
+
+    private ByteBuffer frameView(int frame) {
+        ByteBuffer view = slabs[frame / framesPerSlab].duplicate();
+        int offset = (frame % framesPerSlab) * frameSize;
+        view.position(offset);
+        view.limit(offset + frameSize);
+        return view;
+    }
+
+    private int recycleFrame() {
+        // every frame is in use, so the sweep ends within two turns
+        while (true) {
+            int frame = hand;
+            hand = (hand + 1) % owner.length;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+            } else {
+                frameOf.remove(owner[frame]);
+                return frame;
+            }
+        }
+    }
+
+    private void freeFrame(int frame) {
+        owner[frame] = null;
+        referenced[frame] = false;
+        freeFrames.add(frame);
+    }
+}
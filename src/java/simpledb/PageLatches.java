@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PageLatches keeps short-term latches on pages, separate from the locks
+ * of {@link LockManager}. A latch protects the in-memory contents of a page
+ * while one operation reads or changes it, and is released as soon as the
+ * operation has moved on, not when the transaction ends.
+ * <p>
+ * Latches take no part in deadlock detection. Callers must take them in a
+ * fixed order (top-down, in a tree) and must never wait for a lock while
+ * holding one, since the lock holder may need the latch to finish; {@link
+ * #holdsAny} tells whether the current thread holds any.
+ * <p>
+ * One latch object is kept for every page ever latched, so latches are
+ * meant for the few pages that need them, such as the internal pages of a
+ * B+ tree.
+ *
+ * @Threadsafe
+ */
+public class PageLatches {
+
+    private final ConcurrentHashMap<PageId, ReentrantReadWriteLock> latches;
+    // the latches the current thread holds, in the order taken; true if exclusive
+    private final ThreadLocal<LinkedHashMap<PageId, Boolean>> held;
+
+    public PageLatches() {
+        latches = new ConcurrentHashMap<>();
+        held = ThreadLocal.withInitial(LinkedHashMap::new);
+    }
+
+    /**
+     * Latch a page, shared or exclusive, waiting until that is possible.
+     * Does nothing if the current thread already holds the latch in that
+     * mode or a stronger one.
+     *
+     * @throws IllegalStateException if the thread holds the latch shared
+     *   and asks for it exclusive
+     */
+    public void latch(PageId pid, boolean exclusive) {
+        LinkedHashMap<PageId, Boolean> mine = held.get();
+        Boolean had = mine.get(pid);
+        if (had != null) {
+            if (exclusive && !had) {
+                throw new IllegalStateException("cannot upgrade the latch on " + pid);
+            }
+            return;
+        }
+        ReentrantReadWriteLock latch = latches.computeIfAbsent(pid, p -> new ReentrantReadWriteLock());
+        if (exclusive) {
+            latch.writeLock().lock();
+        } else {
+            latch.readLock().lock();
+        }
+        mine.put(pid, exclusive);
+    }
+
+    /** Release the current thread's latch on a page, if it holds one. */
+    public void unlatch(PageId pid) {
+        Boolean exclusive = held.get().remove(pid);
+        if (exclusive == null) {
+            return;
+        }
+        ReentrantReadWriteLock latch = latches.get(pid);
+        if (exclusive) {
+            latch.writeLock().unlock();
+        } else {
+            latch.readLock().unlock();
+        }
+    }
+
+    /** Release every latch the current thread holds, the last taken first. */
+    public void unlatchAll() {
+        ArrayList<PageId> mine = new ArrayList<>(held.get().keySet());
+        for (int i = mine.size() - 1; i >= 0; i--) {
+            unlatch(mine.get(i));
+        }
+    }
+
+    /** Return true if the current thread holds any latch. */
+    public boolean holdsAny() {
+        return !held.get().isEmpty();
+    }
+}
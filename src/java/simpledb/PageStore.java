@@ -0,0 +1,314 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PageStore does the disk I/O for the pages of one database file. It keeps
+ * a single FileChannel open on the file and reads and writes at explicit
+ * offsets, so a page costs one positional system call rather than an
+ * open, seek, transfer and close.
+ * <p>
+ * There is one PageStore per file, shared by every DbFile opened on it;
+ * see {@link #get}. The channel is opened on first use and stays open
+ * until {@link #closeAll} (called by {@link Database#reset}), after which
+ * it is reopened on demand.
+ * <p>
+ * A FileChannel is closed when a thread using it is interrupted; the store
+ * then reopens it, so interrupts neither fail page I/O nor break the store
+ * for other threads.
+ * <p>
+ * A store can instead serve reads from memory-mapped segments of the file
+ * ({@link #setMapped}), for read-mostly files: a read is then a copy out
+ * of the OS page cache, with no system call at all. The file is mapped
+ * in segments of {@link #MAP_SEGMENT} bytes, the last one being mapped
+ * again whenever a read goes past its end and the file has grown. Writes
+ * always go through the channel. Mapped files must only be truncated
+ * through {@link #truncate}, which waits for mapped reads in progress, as
+ * reading a mapping past the end of its file is an error.
+ *
+ * @Threadsafe
+ */
+public class PageStore {
+
+    private static final ConcurrentHashMap<File, PageStore> stores = new ConcurrentHashMap<>();
+
+    /** Size of the segments mapped stores map their file in. */
+    public static final int MAP_SEGMENT = 1 << 26;
+
+    private final File f;
+    private volatile FileChannel channel;
+    // held by gathering writes, which go through the channel's position
+    private final Object positionLock = new Object();
+    private volatile boolean mapped;
+    // segment i maps the file from offset i * MAP_SEGMENT, or is null; replaced, never changed
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    // shared while copying out of a mapping, exclusive while truncating: touching
+    // a mapping past the end of its file faults the whole JVM (SIGBUS)
+    private final ReentrantReadWriteLock mapLock = new ReentrantReadWriteLock();
+
+    private PageStore(File f) {
+        this.f = f;
+    }
+
+    /** Return the store for a file, creating it on first use. */
+    public static PageStore get(File f) {
+        return stores.computeIfAbsent(f.getAbsoluteFile(), PageStore::new);
+    }
+
+    /**
+     * Close the channels of all stores. Stores stay usable and reopen
+     * their channels when next needed, so that a file deleted and created
+     * again in the meantime is seen afresh.
+     */
+    public static void closeAll() {
+        for (PageStore store : stores.values()) {
+            store.close();
+        }
+    }
+
+    /** Returns the file this store reads and writes. */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Serve reads from memory-mapped segments of the file, or go back to
+     * reading through the channel.
+     */
+    public synchronized void setMapped(boolean mapped) {
+        this.mapped = mapped;
+        if (!mapped) {
+            segments = new MappedByteBuffer[0];
+        }
+    }
+
+    /** Returns true if reads are served from memory-mapped segments. */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c != null && c.isOpen()) {
+            return c;
+        }
+        synchronized (this) {
+            c = channel;
+            if (c == null || !c.isOpen()) {
+                c = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                channel = c;
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Read bytes at an offset into buf, filling it unless the end of the
+     * file comes first.
+     *
+     * @return the number of bytes read, or -1 if offset is at or past the
+     *   end of the file
+     */
+    public int read(long offset, byte[] buf) throws IOException {
+        if (mapped) {
+            return readMapped(offset, buf);
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        return run(c -> {
+            while (bb.hasRemaining()) {
+                if (c.read(bb, offset + bb.position()) < 0) {
+                    return bb.position() == 0 ? -1 : bb.position();
+                }
+            }
+            return bb.position();
+        });
+    }
+
+    private int readMapped(long offset, byte[] buf) throws IOException {
+        int done = 0;
+        mapLock.readLock().lock();
+        try {
+            while (done < buf.length) {
+                long pos = offset + done;
+                int within = (int) (pos % MAP_SEGMENT);
+                MappedByteBuffer segment = segment((int) (pos / MAP_SEGMENT), within + 1);
+                if (segment == null) {
+                    break;
+                }
+                int n = Math.min(buf.length - done, segment.limit() - within);
+                ByteBuffer view = segment.duplicate();
+                view.position(within);
+                view.get(buf, done, n);
+                done += n;
+            }
+        } finally {
+            mapLock.readLock().unlock();
+        }
+        return done == 0 && buf.length > 0 ? -1 : done;
+    }
+
+    /**
+     * Return mapped segment i, covering at least its first length bytes,
+     * mapping it (again) if it is not mapped that far yet.
+     *
+     * @return the segment, or null if the file does not reach that far
+     */
+    private MappedByteBuffer segment(int i, int length) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (i < segs.length && segs[i] != null && segs[i].limit() >= length) {
+            return segs[i];
+        }
+        synchronized (this) {
+            segs = segments;
+            if (i < segs.length && segs[i] != null && segs[i].limit() >= length) {
+                return segs[i];
+            }
+            long start = (long) i * MAP_SEGMENT;
+            long size = Math.min(MAP_SEGMENT, size() - start);
+            if (size < length) {
+                return null;
+            }
+            MappedByteBuffer segment = run(c -> c.map(FileChannel.MapMode.READ_ONLY, start, size));
+            segs = Arrays.copyOf(segs, Math.max(segs.length, i + 1));
+            segs[i] = segment;
+            segments = segs;
+            return segment;
+        }
+    }
+
+    /** Write all of data at an offset, extending the file if needed. */
+    public void write(long offset, byte[] data) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        run(c -> {
+            while (bb.hasRemaining()) {
+                c.write(bb, offset + bb.position());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Write buffers one after another from an offset, extending the file if
+     * needed, with gathering writes: as few system calls as the OS allows
+     * rather than one per buffer. The buffers are written from their
+     * positions to their limits.
+     */
+    public void write(long offset, ByteBuffer[] data) throws IOException {
+        long total = remaining(data);
+        synchronized (positionLock) {
+            run(c -> {
+                c.position(offset + total - remaining(data));
+                while (remaining(data) > 0) {
+                    c.write(data);
+                }
+                return null;
+            });
+        }
+    }
+
+    private static long remaining(ByteBuffer[] data) {
+        long n = 0;
+        for (ByteBuffer bb : data) {
+            n += bb.remaining();
+        }
+        return n;
+    }
+
+    /**
+     * Append data at the end of the file. Callers that append concurrently
+     * must serialize, or both may write at the same offset.
+     *
+     * @return the offset data was written at
+     */
+    public long append(byte[] data) throws IOException {
+        long offset = size();
+        write(offset, data);
+        return offset;
+    }
+
+    /** Force everything written so far to the disk. */
+    public void force() throws IOException {
+        run(c -> {
+            c.force(false);
+            return null;
+        });
+    }
+
+    /**
+     * Cut the file down to size bytes, dropping any mappings, which must
+     * not reach past the new end. Waits for reads copying out of a
+     * mapping to finish first.
+     */
+    public void truncate(long size) throws IOException {
+        // taken before the monitor, as readers take it before segment() takes the monitor
+        mapLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                segments = new MappedByteBuffer[0];
+                run(c -> c.truncate(size));
+            }
+        } finally {
+            mapLock.writeLock().unlock();
+        }
+    }
+
+    /** Returns the current size of the file in bytes. */
+    public long size() throws IOException {
+        return run(FileChannel::size);
+    }
+
+    private interface ChannelOp<T> {
+        T apply(FileChannel c) throws IOException;
+    }
+
+    /**
+     * Run an operation on the channel, reopening it and trying again if it
+     * is found closed. Page I/O is not interruptible, as it was with
+     * RandomAccessFile: the thread's interrupt status is set aside while
+     * the operation runs and restored afterwards. Operations must pick up
+     * where they left off when tried again.
+     */
+    private <T> T run(ChannelOp<T> op) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    return op.apply(channel());
+                } catch (ClosedChannelException e) {
+                    // closed by closeAll() or by an interrupt, in this thread or another
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Close the channel and drop any mappings; the next read or write opens
+     * the channel again.
+     */
+    public synchronized void close() {
+        segments = new MappedByteBuffer[0];
+        FileChannel c = channel;
+        channel = null;
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // nothing was buffered, so nothing is lost
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * PageVersions keeps older committed images of pages for read-only
+ * transactions reading from a snapshot. Commits are numbered by a logical
+ * clock. A snapshot taken at time s sees every commit numbered up to s and
+ * none after.
+ * <p>
+ * The newest committed image of a page is always its before image in the
+ * buffer pool (or the copy on disk), so only superseded images are kept
+ * here. When a commit numbered ts replaces a page's committed image, the
+ * old image is stored with end time ts. A snapshot s then reads the image
+ * with the smallest end time above s, or the current one if there is none.
+ * <p>
+ * Snapshots are only taken below every commit still being installed, so a
+ * snapshot never sees part of a commit. Old images are dropped as soon as
+ * no running or future snapshot can need them, so with no snapshot
+ * readers the store stays empty.
+ *
+ * @Threadsafe
+ * @see BufferPool#beginSnapshot
+ */
+public class PageVersions {
+
+    private static class Retired {
+        final PageId pid;
+        final long endTs;
+
+        Retired(PageId pid, long endTs) {
+            this.pid = pid;
+            this.endTs = endTs;
+        }
+    }
+
+    // number of the newest commit started; guarded by this
+    private long clock;
+    // commits started but not yet fully installed; guarded by this
+    private final TreeSet<Long> installing;
+    // running snapshots: time -> number of transactions; guarded by this
+    private final TreeMap<Long, Integer> snapshots;
+    // superseded images by page, keyed by end time
+    private final ConcurrentHashMap<PageId, ConcurrentSkipListMap<Long, Page>> chains;
+    // the same images in about the order they were retired, for pruning
+    private final ConcurrentLinkedQueue<Retired> retired;
+
+    public PageVersions() {
+        installing = new TreeSet<>();
+        snapshots = new TreeMap<>();
+        chains = new ConcurrentHashMap<>();
+        retired = new ConcurrentLinkedQueue<>();
+    }
+
+    /** Start a snapshot and return its time. */
+    public synchronized long beginSnapshot() {
+        long s = stableTime();
+        snapshots.merge(s, 1, Integer::sum);
+        return s;
+    }
+
+    /** End a snapshot started by {@link #beginSnapshot}. */
+    public void endSnapshot(long s) {
+        synchronized (this) {
+            snapshots.computeIfPresent(s, (k, n) -> n == 1 ? null : n - 1);
+        }
+        prune();
+    }
+
+    /** Start installing a commit and return its number. */
+    public synchronized long beginCommit() {
+        long ts = ++clock;
+        installing.add(ts);
+        return ts;
+    }
+
+    /**
+     * Keep a page's committed image, which commit ts is about to replace.
+     * Must be called before the page's before image changes.
+     */
+    public void retire(PageId pid, Page image, long ts) {
+        chains.compute(pid, (k, chain) -> {
+            if (chain == null) {
+                chain = new ConcurrentSkipListMap<>();
+            }
+            chain.put(ts, image);
+            return chain;
+        });
+        retired.add(new Retired(pid, ts));
+    }
+
+    /** Finish installing a commit started by {@link #beginCommit}. */
+    public void endCommit(long ts) {
+        synchronized (this) {
+            installing.remove(ts);
+        }
+        prune();
+    }
+
+    /**
+     * Return the image of a page as of snapshot s, or null if that is the
+     * page's current committed image. Callers read the current image
+     * first and call this afterwards, so a commit that lands in between
+     * has already retired the image they need.
+     */
+    public Page imageAt(PageId pid, long s) {
+        ConcurrentSkipListMap<Long, Page> chain = chains.get(pid);
+        if (chain == null) {
+            return null;
+        }
+        Map.Entry<Long, Page> e = chain.higherEntry(s);
+        return e == null ? null : e.getValue();
+    }
+
+    /** Return the number of old images being kept. */
+    public int numVersions() {
+        int n = 0;
+        for (ConcurrentSkipListMap<Long, Page> chain : chains.values()) {
+            n += chain.size();
+        }
+        return n;
+    }
+
+    /** The newest time every commit up to which has been installed. */
+    private long stableTime() {
+        return installing.isEmpty() ? clock : installing.first() - 1;
+    }
+
+    /** Drop the images no running or future snapshot can read. */
+    private void prune() {
+        long horizon;
+        synchronized (this) {
+            horizon = stableTime();
+            if (!snapshots.isEmpty()) {
+                horizon = Math.min(horizon, snapshots.firstKey());
+            }
+        }
+        Retired r;
+        while ((r = retired.peek()) != null && r.endTs <= horizon) {
+            if (retired.remove(r)) {
+                long endTs = r.endTs;
+                chains.computeIfPresent(r.pid, (k, chain) -> {
+                    chain.remove(endTs);
+                    return chain.isEmpty() ? null : chain;
+                });
+            }
+        }
+    }
+}
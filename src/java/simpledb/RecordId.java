@@ -73,9 +73,7 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-        Integer b = tupleno;
-        String s = pid.toString()+b.toString();
-        return s.hashCode();
+        return pid.hashCode() * 31 + tupleno;
 //        throw new UnsupportedOperationException("implement this");
 
     }
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool should give
+ * up when it needs room for a new one. The BufferPool reports every access
+ * to a resident page and every page it drops; the policy keeps whatever
+ * ordering state it needs and names a victim on request.
+ * <p>
+ * Implementations must be safe to call from several threads at once.
+ *
+ * @see BufferPool
+ * @see LRUReplacementPolicy
+ * @see ClockReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Callback used by {@link #chooseVictim} to ask the BufferPool whether a
+     * candidate page may be thrown out right now (e.g. it is not dirty).
+     */
+    public interface Evictable {
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Record a reference to the specified page. Called on every cache hit,
+     * and once when a page is first brought into the BufferPool.
+     *
+     * @param pid the page that was referenced
+     */
+    public void recordAccess(PageId pid);
+
+    /**
+     * Forget about the specified page; it is no longer resident.
+     *
+     * @param pid the page that left the BufferPool
+     */
+    public void remove(PageId pid);
+
+    /**
+     * Pick a resident page to evict, and stop tracking it.
+     *
+     * @param evictable tells which candidates may currently be evicted
+     * @return the page to evict, or null if no tracked page is evictable
+     */
+    public PageId chooseVictim(Evictable evictable);
+
+    /**
+     * Return the tracked pages, the one the policy would keep longest
+     * first. Used to decide which pages are worth reloading after a
+     * restart.
+     */
+    public List<PageId> hottestFirst();
+}
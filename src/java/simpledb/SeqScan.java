@@ -37,7 +37,11 @@ public class SeqScan implements OpIterator {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-        iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        // a scan of a table too big to cache should not evict everything else
+        BufferRing ring = file instanceof HeapFile
+                ? BufferRing.forScan(((HeapFile) file).numPages()) : null;
+        iterator = file.iterator(tid, ring);
 
     }
 
@@ -9,15 +9,42 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly if true, the transaction reads from a snapshot taken
+     *   when it starts, without locks, and cannot write
+     * @see BufferPool#beginSnapshot
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Create a read-write transaction retrying an aborted one. It keeps the
+     * start time of the first attempt, which deadlock prevention orders
+     * transactions by.
+     *
+     * @param prior the id of the aborted attempt
+     * @see TransactionId#TransactionId(TransactionId)
+     */
+    public Transaction(TransactionId prior) {
+        tid = new TransactionId(prior);
+        this.readOnly = false;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (readOnly) {
+            Database.getBufferPool().beginSnapshot(tid);
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -29,6 +56,11 @@ public class Transaction {
         return tid;
     }
 
+    /** Return true if this is a read-only snapshot transaction. */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -12,15 +12,44 @@ public class TransactionId implements Serializable {
 
     static AtomicLong counter = new AtomicLong(0);
     final long myid;
+    // id and creation time of the first attempt of this transaction
+    private final long firstId;
+    private final long startTime;
 
     public TransactionId() {
         myid = counter.getAndIncrement();
+        firstId = myid;
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Create the id of a retry of an aborted transaction. The retry gets a
+     * new id but keeps the age of the first attempt, so wound-wait and
+     * wait-die see it as old as it was and it cannot be starved by being
+     * made the youngest again on every restart.
+     *
+     * @param prior the id of the aborted attempt
+     */
+    public TransactionId(TransactionId prior) {
+        myid = counter.getAndIncrement();
+        firstId = prior.firstId;
+        startTime = prior.startTime;
     }
 
     public long getId() {
         return myid;
     }
 
+    /** Returns the id of the first attempt of this transaction. */
+    public long getFirstId() {
+        return firstId;
+    }
+
+    /** Returns when the first attempt of this transaction was created. */
+    public long getStartTime() {
+        return startTime;
+    }
+
     @Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Scan-resistant 2Q replacement. A page referenced once sits in a FIFO
+ * probationary queue (A1in); only a second reference, either while it is
+ * still probationary or shortly after it was evicted from probation,
+ * promotes it to the main LRU queue (Am). A sequential scan therefore only
+ * churns the probationary queue and leaves the hot pages in Am alone.
+ * <p>
+ * Recently evicted probationary pages are remembered (without their data)
+ * in a bounded ghost queue (A1out) so a page that comes back soon after
+ * eviction is recognised as hot.
+ *
+ * @see ReplacementPolicy
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    /** Default share of resident pages the probationary queue may hold
+        before victims are taken from it first. */
+    public static final double DEFAULT_PROBATION_FRACTION = 0.25;
+
+    /** Ghost entries kept, as a multiple of the resident page count. */
+    private static final double GHOST_FRACTION = 0.5;
+    private static final int MIN_GHOSTS = 16;
+
+    private final double probationFraction;
+
+    // insertion-ordered FIFO of pages referenced once
+    private final LinkedHashMap<PageId, Boolean> a1in;
+    // access-ordered LRU of pages referenced at least twice
+    private final LinkedHashMap<PageId, Boolean> am;
+    // ids of pages recently evicted from a1in
+    private final LinkedHashMap<PageId, Boolean> a1out;
+
+    public TwoQueueReplacementPolicy() {
+        this(DEFAULT_PROBATION_FRACTION);
+    }
+
+    /**
+     * @param probationFraction share of resident pages the probationary
+     *   queue may hold before victims are taken from it first
+     */
+    public TwoQueueReplacementPolicy(double probationFraction) {
+        this.probationFraction = probationFraction;
+        a1in = new LinkedHashMap<>();
+        am = new LinkedHashMap<>(16, 0.75f, true);
+        a1out = new LinkedHashMap<>();
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        if (am.containsKey(pid)) {
+            am.get(pid); // refresh LRU position
+        } else if (a1in.remove(pid) != null || a1out.remove(pid) != null) {
+            // second reference: promote
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public synchronized void remove(PageId pid) {
+        a1in.remove(pid);
+        am.remove(pid);
+        a1out.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        int resident = a1in.size() + am.size();
+        boolean probationFirst = am.isEmpty() || a1in.size() > probationFraction * resident;
+
+        PageId victim = null;
+        if (probationFirst) {
+            victim = takeFirst(a1in, evictable);
+        }
+        if (victim == null) {
+            victim = takeFirst(am, evictable);
+        }
+        if (victim == null && !probationFirst) {
+            victim = takeFirst(a1in, evictable);
+        }
+        return victim;
+    }
+
+    private PageId takeFirst(LinkedHashMap<PageId, Boolean> queue, Evictable evictable) {
+        Iterator<PageId> it = queue.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.canEvict(pid)) {
+                it.remove();
+                if (queue == a1in) {
+                    rememberGhost(pid);
+                }
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<PageId> hottestFirst() {
+        // most recently used of Am, then the newest probationary pages
+        ArrayList<PageId> hottest = new ArrayList<>(am.keySet());
+        Collections.reverse(hottest);
+        ArrayList<PageId> probation = new ArrayList<>(a1in.keySet());
+        Collections.reverse(probation);
+        hottest.addAll(probation);
+        return hottest;
+    }
+
+    private void rememberGhost(PageId pid) {
+        a1out.put(pid, Boolean.TRUE);
+        int maxGhosts = Math.max(MIN_GHOSTS, (int) (GHOST_FRACTION * (a1in.size() + am.size())));
+        Iterator<PageId> it = a1out.keySet().iterator();
+        while (a1out.size() > maxGhosts && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
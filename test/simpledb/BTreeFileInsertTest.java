@@ -5,6 +5,8 @@ import simpledb.Predicate.Op;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Before;
@@ -124,6 +126,14 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 					otherPage.reverseIterator().next().getKey()));
 		}
 		
+		// the left page links to the right one, bounded by the key pushed up
+		BTreeInternalPage leftHalf = (BTreeInternalPage) dirtypages.get(parentEntry.getLeftChild());
+		BTreeInternalPage rightHalf = (BTreeInternalPage) dirtypages.get(parentEntry.getRightChild());
+		assertEquals(rightHalf.getId(), leftHalf.getRightSiblingId());
+		assertEquals(parentEntry.getKey(), leftHalf.getHighKey());
+		assertNull(rightHalf.getRightSiblingId());
+		assertNull(rightHalf.getHighKey());
+
 		int totalEntries = page.getNumEntries() + otherPage.getNumEntries();
 		assertEquals(entriesPerPage - 1, totalEntries);
 		assertTrue(entriesPerPage/2 == page.getNumEntries() || 
@@ -172,6 +182,129 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertTrue(page.getId().getPageNumber() == 2 || otherPage.getId().getPageNumber() == 2);
 	}
 
+	/**
+	 * Unit test for latch crabbing: searches lock no internal pages, so one
+	 * gets past the internal pages an uncommitted split holds locked
+	 */
+	@Test(timeout = 60000)
+	public void testSearchPastUncommittedSplit() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+		BufferPool bp = Database.getBufferPool();
+
+		// insert at the top of the key range until a leaf splits
+		int numPages = bf.numPages();
+		while(bf.numPages() == numPages) {
+			bp.insertTuple(tid, bf.getId(),
+					BTreeUtility.getBTreeTuple(new int[]{BTreeUtility.MAX_RAND_VALUE, 0}));
+		}
+		BTreePageId rootId = bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		assertTrue(bp.holdsLock(tid, rootId));
+
+		// a search at the other end of the tree goes through the root without waiting
+		TransactionId reader = new TransactionId();
+		DbFileIterator it = bf.indexIterator(reader,
+				new IndexPredicate(Op.LESS_THAN, new IntField(BTreeUtility.MAX_RAND_VALUE/100)));
+		it.open();
+		while(it.hasNext()) {
+			it.next();
+		}
+		it.close();
+		assertFalse(bp.holdsLock(reader, rootId));
+		bp.transactionComplete(reader);
+	}
+
+	/**
+	 * Unit test for page allocation: a split below the root takes a new page without
+	 * locking the root pointer page, which another transaction's root split needs
+	 */
+	@Test
+	public void testSplitLeavesRootPtrUnlocked() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+		BufferPool bp = Database.getBufferPool();
+
+		int numPages = bf.numPages();
+		while(bf.numPages() == numPages) {
+			bp.insertTuple(tid, bf.getId(),
+					BTreeUtility.getBTreeTuple(new int[]{BTreeUtility.MAX_RAND_VALUE, 0}));
+		}
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+
+		TransactionId other = new TransactionId();
+		assertNotNull(bp.tryGetPage(other, rootPtrId, Permissions.READ_WRITE));
+		bp.transactionComplete(other);
+	}
+
+	/**
+	 * Unit test for aborting splits under concurrent searches: the pages an aborted
+	 * transaction split are put back while searches go through them, and no search
+	 * may see a half-restored tree
+	 */
+	@Test(timeout = 120000)
+	public void testAbortSplitDuringSearches() throws Exception {
+		BufferPool.setPageSize(1024);
+		// every leaf and the root are full, so the root splits soon after the inserts start
+		int leaves = BTreeUtility.getNumEntriesPerPage();
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, leaves * BTreeUtility.getNumTuplesPerPage(2),
+				null, null, 0);
+		// room for the pages a round of inserts dirties
+		BufferPool bp = Database.resetBufferPool(500);
+		IndexPredicate ipred = new IndexPredicate(Op.LESS_THAN, new IntField(BTreeUtility.MAX_RAND_VALUE/2));
+		int expected = countMatching(bf, new TransactionId(), ipred);
+
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] searchers = new Thread[4];
+		for(int i = 0; i < searchers.length; i++) {
+			searchers[i] = new Thread(() -> {
+				try {
+					while(!done.get()) {
+						assertEquals(expected, countMatching(bf, new TransactionId(), ipred));
+					}
+				} catch(Throwable t) {
+					failure.compareAndSet(null, t);
+				}
+			});
+			searchers[i].start();
+		}
+
+		try {
+			for(int round = 0; round < 30 && failure.get() == null; round++) {
+				BTreePageId rootId = bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId();
+				while(rootId.equals(bf.getRootPtrPage(tid, new HashMap<PageId, Page>()).getRootId())) {
+					bp.insertTuple(tid, bf.getId(),
+							BTreeUtility.getBTreeTuple(new int[]{BTreeUtility.MAX_RAND_VALUE, 0}));
+				}
+				bp.transactionComplete(tid, false);
+				tid = new TransactionId();
+			}
+		} finally {
+			done.set(true);
+			for(Thread t : searchers) {
+				t.join();
+			}
+		}
+		if(failure.get() != null) {
+			throw new AssertionError("a search failed", failure.get());
+		}
+		assertEquals(expected, countMatching(bf, tid, ipred));
+	}
+
+	/** Count the tuples an index scan returns, in a transaction of their own. */
+	private static int countMatching(BTreeFile bf, TransactionId tid, IndexPredicate ipred) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		int count = 0;
+		it.open();
+		while(it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		return count;
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -15,6 +15,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -116,6 +117,31 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.setRightSiblingId() and setHighKey()
+	 */
+	@Test public void setRightSiblingAndHighKey() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertNull(page.getRightSiblingId());
+		assertNull(page.getHighKey());
+
+		BTreePageId id = new BTreePageId(pid.getTableId(), 1, BTreePageId.INTERNAL);
+		page.setRightSiblingId(id);
+		page.setHighKey(new IntField(51440));
+		BTreeInternalPage copy = new BTreeInternalPage(pid, page.getPageData(), 0);
+		assertEquals(id, copy.getRightSiblingId());
+		assertEquals(new IntField(51440), copy.getHighKey());
+		assertEquals(page.getNumEntries(), copy.getNumEntries());
+
+		id = new BTreePageId(pid.getTableId(), 1, BTreePageId.LEAF);
+		try {
+			page.setRightSiblingId(id);
+			throw new Exception("should not be able to set rightSibling to leaf node; expected DbException");
+		} catch (DbException e) {
+			// explicitly ignored
+		}
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.iterator()
 	 */
@@ -171,7 +197,7 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 	 */
 	@Test public void getNumEmptySlots() throws Exception {
 		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
-		assertEquals(483, page.getNumEmptySlots());
+		assertEquals(481, page.getNumEmptySlots());
 	}
 
 	/**
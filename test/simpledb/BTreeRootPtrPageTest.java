@@ -6,6 +6,7 @@ import simpledb.systemtest.SystemTestUtil;
 
 //import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -131,6 +132,24 @@ public class BTreeRootPtrPageTest extends SimpleDbTestBase {
 		assertEquals(false, dirtier != null);
 	}
 
+	/**
+	 * Unit test for BTreeRootPtrPage's format marker: an empty page carries it, and
+	 * a root pointer page written before internal pages had right links is rejected
+	 */
+	@Test public void rejectOldFormat() throws Exception {
+		BTreeRootPtrPage empty = new BTreeRootPtrPage(pid, BTreeRootPtrPage.createEmptyPageData());
+		assertEquals(null, empty.getRootId());
+
+		byte[] old = Arrays.copyOf(EXAMPLE_DATA, BTreeRootPtrPage.getPageSize());
+		Arrays.fill(old, 9, old.length, (byte) 0);
+		try {
+			new BTreeRootPtrPage(pid, old);
+			throw new Exception("should not be able to read a page in the old format; expected IOException");
+		} catch (IOException e) {
+			// explicitly ignored
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
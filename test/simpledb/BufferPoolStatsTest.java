@@ -0,0 +1,79 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // 4 pages of 2-int tuples
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        Database.getBufferPool().setReadAheadPages(0);
+        Database.getStats().reset();
+    }
+
+    /**
+     * Unit test for BufferPoolStats hit and miss counters
+     */
+    @Test public void countsHitsAndMisses() throws Exception {
+        SystemTestUtil.matchTuples(hf, tuples);
+        BufferPoolStats stats = Database.getStats();
+        assertEquals(4, stats.getMisses());
+        assertEquals(Long.valueOf(4), stats.getMissesByTable().get(hf.getId()));
+        assertEquals(4, stats.getResidentPages());
+
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(4, stats.getMisses());
+        assertEquals(4, stats.getHits());
+        assertEquals(0.5, stats.getHitRatio(), 1e-9);
+    }
+
+    /**
+     * Unit test for BufferPoolStats dirty page and page write counters
+     */
+    @Test public void countsDirtyPagesAndWrites() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE)
+                .markDirty(true, tid);
+        assertEquals(1, Database.getStats().getDirtyPages());
+
+        Database.getBufferPool().flushAllPages();
+        assertEquals(0, Database.getStats().getDirtyPages());
+        assertEquals(1, Database.getStats().getPageWrites());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for the JMX registration done by Database
+     */
+    @Test public void publishedOverJmx() throws Exception {
+        SystemTestUtil.matchTuples(hf, tuples);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Object misses = server.getAttribute(new ObjectName(BufferPoolStats.OBJECT_NAME), "Misses");
+        assertEquals(4L, misses);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private HeapFile hot;
+    private HeapFile big;
+    private ArrayList<ArrayList<Integer>> bigTuples;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        // 2 pages and 20 pages of 2-int tuples
+        hot = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        bigTuples = new ArrayList<ArrayList<Integer>>();
+        big = SystemTestUtil.createRandomHeapFile(2, 10000, null, bigTuples);
+        bp = Database.resetBufferPool(10);
+        bp.setReadAheadPages(0);
+    }
+
+    /**
+     * Unit test for BufferRing.forScan(): only tables that do not fit get
+     * a ring, and the ring is smaller than the pool
+     */
+    @Test public void forScan() {
+        assertNull(BufferRing.forScan(hot.numPages()));
+        BufferRing ring = BufferRing.forScan(big.numPages());
+        assertNotNull(ring);
+        assertTrue(ring.size() < bp.getCapacity());
+    }
+
+    /**
+     * Unit test for a SeqScan larger than the pool: it reads all of its
+     * tuples, recycles a few frames, and leaves the other pages resident
+     */
+    @Test public void largeScanKeepsWorkingSet() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        int ringSize = BufferRing.forScan(big.numPages()).size();
+
+        SystemTestUtil.matchTuples(big, bigTuples);
+        assertTrue(bp.getStats().getResidentPages() <= hot.numPages() + ringSize);
+
+        long misses = bp.getStats().getMisses();
+        for (int i = 0; i < hot.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(misses, bp.getStats().getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for a normal reference to a page a ring loaded: the page
+     * is taken over and survives the ring wrapping around
+     */
+    @Test public void sharedPageLeavesRing() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferRing ring = new BufferRing(2);
+        HeapPageId first = new HeapPageId(big.getId(), 0);
+        bp.getPage(tid, first, Permissions.READ_ONLY, ring);
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        for (int i = 1; i < 5; i++) {
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        }
+        assertEquals(3, bp.getStats().getResidentPages());
+
+        long misses = bp.getStats().getMisses();
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        assertEquals(misses, bp.getStats().getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private File f;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("fsm", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.findPage(): full pages are passed over,
+     * and a page marked free again is found first.
+     */
+    @Test public void findPage() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(f, 4);
+        assertEquals(0, fsm.findPage(0));
+        fsm.markFull(0);
+        fsm.markFull(1);
+        fsm.markFull(3);
+        assertEquals(2, fsm.findPage(0));
+        assertEquals(4, fsm.findPage(3));
+        fsm.markFull(2);
+        assertEquals(4, fsm.findPage(0));
+        fsm.markFree(1);
+        assertEquals(1, fsm.findPage(0));
+        assertEquals(4, fsm.findPage(2));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap persistence: a map loaded again has the
+     * same pages full, unless the heap file's page count has changed.
+     */
+    @Test public void reload() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(f, 10);
+        assertFalse(fsm.getFile().exists());
+        fsm.markFull(0);
+        fsm.markFull(9);
+        assertTrue(fsm.getFile().exists());
+        fsm.pageAdded(10);
+        fsm.markFull(10);
+        fsm.markFree(0);
+        PageStore.closeAll();
+
+        FreeSpaceMap reloaded = new FreeSpaceMap(f, 11);
+        assertFalse(reloaded.isFull(0));
+        assertTrue(reloaded.isFull(9));
+        assertTrue(reloaded.isFull(10));
+        assertEquals(0, reloaded.findPage(0));
+        assertEquals(11, reloaded.findPage(9));
+
+        // left over from a file with a different number of pages
+        FreeSpaceMap stale = new FreeSpaceMap(f, 12);
+        assertFalse(stale.isFull(9));
+        assertEquals(9, stale.findPage(9));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -77,6 +77,27 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() from a memory-mapped file
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        hf.setMemoryMapped(true);
+        try {
+            HeapPage page = (HeapPage) hf.readPage(pid);
+            assertArrayEquals(expected, page.getPageData());
+
+            // pages appended later are mapped as they are read
+            page.deleteTuple(page.iterator().next());
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 1), page.getPageData()));
+            assertEquals(485, ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1))).getNumEmptySlots());
+        } finally {
+            hf.setMemoryMapped(false);
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -1,5 +1,10 @@
 package simpledb;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +48,141 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple() with full pages: the free space
+     * map sends the insert to the last page without touching the full
+     * ones, and a committed delete makes a full page a target again.
+     */
+    @Test public void addTupleSkipsFullPages() throws Exception {
+        for (int i = 0; i < 2 * 504 + 1; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        Page page = empty.insertTuple(tid, Utility.getHeapTuple(0, 2)).get(0);
+        assertEquals(2, page.getId().getPageNumber());
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 1)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // free a slot on page 1
+        tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (victim == null) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().getPageNumber() == 1) {
+                victim = t;
+            }
+        }
+        it.close();
+        empty.deleteTuple(tid, victim);
+        // the freed slot is only usable once the delete commits
+        assertTrue(empty.freeSpaceMap().isFull(1));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        page = empty.insertTuple(tid, Utility.getHeapTuple(0, 2)).get(0);
+        assertEquals(1, page.getId().getPageNumber());
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * A page filled by inserts that abort is marked free again, so the
+     * file does not grow past it.
+     */
+    @Test public void abortedInsertFreesPage() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 504; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertTrue(empty.freeSpaceMap().isFull(0));
+        bp.transactionComplete(tid, false);
+        assertFalse(empty.freeSpaceMap().isFull(0));
+
+        tid = new TransactionId();
+        for (int i = 0; i < 504; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(1, empty.numPages());
+    }
+
+    private int countTuples(TransactionId tid) throws Exception {
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad() from an OpIterator: tuples are
+     * packed into full pages after the file's empty page, the batch is
+     * logged as one extent, and the full pages are marked so in the free
+     * space map once the load commits.
+     */
+    @Test public void bulkLoad() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 2 * 504 + 10; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        int records = Database.getLogFile().getTotalRecords();
+        int n = empty.bulkLoad(tid, new TupleIterator(Utility.getTupleDesc(2), tuples));
+        assertEquals(2 * 504 + 10, n);
+        assertEquals(4, empty.numPages());
+        assertEquals(LockMode.X, Database.getBufferPool().getLockManager().tableLockMode(tid, empty.getId()));
+        // one extent record for the batch; the free space map waits for the commit
+        assertEquals(records + 1, Database.getLogFile().getTotalRecords());
+        FreeSpaceMap fsm = empty.freeSpaceMap();
+        assertFalse(fsm.isFull(1));
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertFalse(fsm.isFull(0));
+        assertTrue(fsm.isFull(1));
+        assertTrue(fsm.isFull(2));
+        assertFalse(fsm.isFull(3));
+
+        tid = new TransactionId();
+        assertEquals(2 * 504 + 10, countTuples(tid));
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(empty.getId(), 3), Permissions.READ_ONLY);
+        assertEquals(504 - 10, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad() from a text file, and for undoing
+     * a load when its transaction aborts.
+     */
+    @Test public void bulkLoadText() throws Exception {
+        File in = File.createTempFile("bulkload", ".txt");
+        in.deleteOnExit();
+        try (FileWriter w = new FileWriter(in)) {
+            for (int i = 0; i < 1000; ++i) {
+                w.write(i + "," + (-i) + "\n");
+            }
+        }
+        assertEquals(1000, empty.bulkLoad(tid, in, ','));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, empty.numPages());
+
+        tid = new TransactionId();
+        assertEquals(1000, empty.bulkLoad(tid, in, ','));
+        assertEquals(5, empty.numPages());
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(3, empty.numPages());
+        assertFalse(empty.freeSpaceMap().isFull(3));
+
+        tid = new TransactionId();
+        assertEquals(1000, countTuples(tid));
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,6 +1,8 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -126,6 +128,70 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /** Return the tuple a page's iterator yields for a slot, or null. */
+    private static Tuple tupleAt(HeapPage page, int slot) {
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getTupleNumber() == slot) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Unit test for row changes by several transactions on one page: each
+     * is committed or undone on its own, and the page stays dirty until
+     * all of them have ended
+     */
+    @Test public void rowChangesEndSeparately() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        int slot1 = page.reserveSlot(tid1);
+        int slot2 = page.reserveSlot(tid2);
+        assertTrue(slot1 != slot2);
+        page.insertTuple(Utility.getHeapTuple(1, 2), slot1, tid1);
+        page.insertTuple(Utility.getHeapTuple(2, 2), slot2, tid2);
+        assertTrue(page.isDirtiedBy(tid1));
+        assertTrue(page.isDirtiedBy(tid2));
+
+        // committing tid1 leaves tid2's row out of the before image
+        HeapPage committed = (HeapPage) page.commitChanges(tid1);
+        assertEquals(Utility.getHeapTuple(1, 2).getField(0), tupleAt(committed, slot1).getField(0));
+        assertNull(tupleAt(committed, slot2));
+        assertEquals(tid2, page.isDirty());
+
+        // aborting tid2 removes just its row, in place
+        assertTrue(page.abortChanges(tid2) == page);
+        assertNull(tupleAt(page, slot2));
+        assertTrue(tupleAt(page, slot1) != null);
+        assertNull(page.isDirty());
+        // and frees its slot
+        assertEquals(slot2, page.reserveSlot(new TransactionId()));
+    }
+
+    /**
+     * Unit test for row deletes: the slot is not reused until the deleting
+     * transaction ends, and an abort puts the row back
+     */
+    @Test public void deletedSlotWaitsForAbort() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = Utility.getHeapTuple(7, 2);
+        page.insertTuple(t);
+        page.setBeforeImage();
+        int slot = t.getRecordId().getTupleNumber();
+
+        TransactionId tid = new TransactionId();
+        page.deleteTuple(t, tid);
+        assertNull(tupleAt(page, slot));
+        assertTrue(page.reserveSlot(new TransactionId()) != slot);
+
+        page.abortChanges(tid);
+        assertEquals(t.getField(0), tupleAt(page, slot).getField(0));
+    }
+
     /**
      * JUnit suite target
      */
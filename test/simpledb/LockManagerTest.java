@@ -0,0 +1,400 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private LockManager lm;
+    private PageId pid;
+    private List<String> granted;
+
+    @Before public void setUp() {
+        lm = new LockManager(null);
+        pid = new HeapPageId(-1, 0);
+        granted = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    /** Start a thread that takes a lock, records its name, and returns. */
+    private Thread request(String name, TransactionId tid, Permissions perm) throws Exception {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(tid, pid, perm, TIMEOUT_MS);
+                granted.add(name);
+            } catch (TransactionAbortedException e) {
+                granted.add(name + " aborted");
+            }
+        });
+        t.start();
+        // let it reach the queue before the next request
+        while (t.getState() != Thread.State.TIMED_WAITING && t.getState() != Thread.State.WAITING
+                && t.isAlive()) {
+            Thread.sleep(1);
+        }
+        return t;
+    }
+
+    /**
+     * Unit test for FIFO granting: a reader arriving after a waiting writer
+     * does not jump ahead of it, even though it is compatible with the
+     * current holder
+     */
+    @Test public void writerIsNotStarved() throws Exception {
+        TransactionId reader = new TransactionId();
+        lm.acquire(reader, pid, Permissions.READ_ONLY, TIMEOUT_MS);
+        TransactionId writer = new TransactionId();
+        Thread w = request("writer", writer, Permissions.READ_WRITE);
+        TransactionId lateReader = new TransactionId();
+        Thread r = request("lateReader", lateReader, Permissions.READ_ONLY);
+        assertTrue(granted.isEmpty());
+
+        lm.releaseTidlock(reader);
+        w.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("writer"), granted);
+        lm.releaseTidlock(writer);
+        r.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("writer", "lateReader"), granted);
+    }
+
+    /**
+     * Unit test for upgrade priority: a shared holder asking for an
+     * exclusive lock is served before writers that queued earlier
+     */
+    @Test public void upgradeGoesFirst() throws Exception {
+        TransactionId upgrader = new TransactionId();
+        TransactionId other = new TransactionId();
+        lm.acquire(upgrader, pid, Permissions.READ_ONLY, TIMEOUT_MS);
+        lm.acquire(other, pid, Permissions.READ_ONLY, TIMEOUT_MS);
+        Thread w = request("writer", new TransactionId(), Permissions.READ_WRITE);
+        Thread u = request("upgrader", upgrader, Permissions.READ_WRITE);
+
+        lm.releaseTidlock(other);
+        u.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("upgrader"), granted);
+        lm.releaseTidlock(upgrader);
+        w.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("upgrader", "writer"), granted);
+    }
+
+    /**
+     * Unit test for timeouts: a waiter that gives up is removed from the
+     * queue and does not block requests behind it
+     */
+    @Test public void timeoutLeavesQueue() throws Exception {
+        TransactionId holder = new TransactionId();
+        lm.acquire(holder, pid, Permissions.READ_ONLY, TIMEOUT_MS);
+        try {
+            lm.acquire(new TransactionId(), pid, Permissions.READ_WRITE, 10);
+            fail("expected the exclusive request to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        TransactionId reader = new TransactionId();
+        lm.acquire(reader, pid, Permissions.READ_ONLY, 10);
+        assertTrue(lm.holdsLock(reader, pid));
+    }
+
+    /**
+     * Unit test for deadlock detection: the request that closes a cycle is
+     * refused at once when its transaction is the youngest on the cycle
+     */
+    @Test public void deadlockAbortsRequester() throws Exception {
+        PageId other = new HeapPageId(-1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, pid, Permissions.READ_WRITE);
+        lm.acquire(younger, other, Permissions.READ_WRITE);
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(older, other, Permissions.READ_WRITE);
+                granted.add("older");
+            } catch (TransactionAbortedException e) {
+                granted.add("older aborted");
+            }
+        });
+        t.start();
+        while (t.getState() != Thread.State.TIMED_WAITING && t.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquire(younger, pid, Permissions.READ_WRITE);
+            fail("expected a deadlock");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        lm.releaseTidlock(younger);
+        t.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("older"), granted);
+    }
+
+    /**
+     * Unit test for deadlock detection: when an older transaction closes the
+     * cycle, the younger one, already waiting, is woken up and aborted
+     */
+    @Test public void deadlockAbortsYoungestWaiter() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, pid, Permissions.READ_ONLY);
+        lm.acquire(younger, pid, Permissions.READ_ONLY);
+        Thread u = request("younger", younger, Permissions.READ_WRITE);
+        Thread o = request("older", older, Permissions.READ_WRITE);
+        u.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("younger aborted"), granted);
+
+        lm.releaseTidlock(younger);
+        o.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("younger aborted", "older"), granted);
+    }
+
+    /**
+     * Unit test for multi-granularity locking: writers of different rows on
+     * one page only hold IX on it and do not block each other, while a
+     * page-level reader waits for both
+     */
+    @Test public void rowWritersShareAPage() throws Exception {
+        TransactionId w1 = new TransactionId();
+        TransactionId w2 = new TransactionId();
+        lm.acquire(w1, new RecordId(pid, 0), Permissions.READ_WRITE, 10);
+        lm.acquire(w2, new RecordId(pid, 1), Permissions.READ_WRITE, 10);
+        assertEquals(LockMode.IX, lm.lockMode(w1, pid));
+        assertEquals(LockMode.IX, lm.tableLockMode(w2, pid.getTableId()));
+        assertTrue(lm.holdsLock(w2, new RecordId(pid, 1)));
+
+        Thread r = request("reader", new TransactionId(), Permissions.READ_ONLY);
+        lm.releaseTidlock(w1);
+        assertTrue(granted.isEmpty());
+        lm.releaseTidlock(w2);
+        r.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("reader"), granted);
+    }
+
+    /**
+     * Unit test for lock upgrades across modes: a page reader that starts
+     * writing rows holds the page in SIX, which keeps row writers out
+     */
+    @Test public void sharedPlusIntentionIsSix() throws Exception {
+        TransactionId tid = new TransactionId();
+        lm.acquire(tid, pid, Permissions.READ_ONLY, 10);
+        lm.acquire(tid, new RecordId(pid, 0), Permissions.READ_WRITE, 10);
+        assertEquals(LockMode.SIX, lm.lockMode(tid, pid));
+        try {
+            lm.acquire(new TransactionId(), new RecordId(pid, 1), Permissions.READ_WRITE, 10);
+            fail("expected IX to conflict with SIX");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test for per-transaction release: releasing a transaction frees
+     * exactly its own locks, across stripes, and nothing it gave up earlier
+     */
+    @Test public void releaseOnlyOwnLocks() throws Exception {
+        lm = new LockManager(4, null, null);
+        TransactionId mine = new TransactionId();
+        TransactionId theirs = new TransactionId();
+        List<PageId> pages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PageId p = new HeapPageId(-1, i);
+            pages.add(p);
+            lm.acquire(mine, p, Permissions.READ_ONLY, TIMEOUT_MS);
+            lm.acquire(theirs, p, Permissions.READ_ONLY, TIMEOUT_MS);
+        }
+        lm.releasePage(mine, pages.get(0));
+        assertFalse(lm.holdsLock(mine, pages.get(0)));
+
+        lm.releaseTidlock(mine);
+        for (PageId p : pages) {
+            assertFalse(lm.holdsLock(mine, p));
+            assertTrue(lm.holdsLock(theirs, p));
+        }
+        lm.releaseTidlock(theirs);
+        for (PageId p : pages) {
+            assertFalse(lm.holdsLock(theirs, p));
+        }
+    }
+
+    /**
+     * Unit test for wait-die: a younger transaction blocked by an older one
+     * is refused at once, while an older one waits for a younger one
+     */
+    @Test public void waitDieAbortsYoungerRequester() throws Exception {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, pid, Permissions.READ_ONLY, TIMEOUT_MS);
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquire(younger, pid, Permissions.READ_WRITE, TIMEOUT_MS);
+            fail("expected the younger transaction to die");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        lm.releaseTidlock(younger);
+        lm.releaseTidlock(older);
+        lm.acquire(younger, pid, Permissions.READ_ONLY, TIMEOUT_MS);
+        Thread o = request("older", older, Permissions.READ_WRITE);
+        assertTrue(granted.isEmpty());
+        lm.releaseTidlock(younger);
+        o.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("older"), granted);
+    }
+
+    /**
+     * Unit test for wait-die with a retried transaction: the retry keeps
+     * the age of its first attempt, so it waits for a transaction that
+     * started after the first attempt instead of dying again
+     */
+    @Test public void waitDieRetryKeepsAge() throws Exception {
+        lm.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+        TransactionId first = new TransactionId();
+        TransactionId other = new TransactionId();
+        TransactionId retry = new TransactionId(first);
+        assertTrue(retry.getId() > other.getId());
+        assertEquals(first.getFirstId(), retry.getFirstId());
+        assertEquals(first.getStartTime(), retry.getStartTime());
+
+        lm.acquire(other, pid, Permissions.READ_WRITE, TIMEOUT_MS);
+        Thread r = request("retry", retry, Permissions.READ_WRITE);
+        assertTrue(granted.isEmpty());
+        lm.releaseTidlock(other);
+        r.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("retry"), granted);
+    }
+
+    /**
+     * Unit test for wound-wait: an older transaction blocked by a younger
+     * one wounds it; a waiting victim aborts at once, a running one at its
+     * next lock request, and the older transaction gets the lock
+     */
+    @Test public void woundWaitAbortsYoungerHolder() throws Exception {
+        lm.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+        PageId other = new HeapPageId(-1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, other, Permissions.READ_WRITE, TIMEOUT_MS);
+        lm.acquire(younger, pid, Permissions.READ_WRITE, TIMEOUT_MS);
+        Thread o = request("older", older, Permissions.READ_WRITE);
+        assertTrue(granted.isEmpty());
+
+        try {
+            lm.acquire(younger, new HeapPageId(-1, 2), Permissions.READ_ONLY, TIMEOUT_MS);
+            fail("expected the wounded transaction to abort");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseTidlock(younger);
+        o.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("older"), granted);
+
+        // a younger transaction waits for an older one, and is wounded
+        // while waiting when the older one needs its lock
+        TransactionId third = new TransactionId();
+        lm.acquire(third, new HeapPageId(-1, 3), Permissions.READ_WRITE, TIMEOUT_MS);
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(third, other, Permissions.READ_WRITE, TIMEOUT_MS);
+                granted.add("third");
+            } catch (TransactionAbortedException e) {
+                granted.add("third aborted");
+            }
+        });
+        t.start();
+        while (t.getState() != Thread.State.TIMED_WAITING && t.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        assertEquals(Arrays.asList("older"), granted);
+        Thread w = new Thread(() -> {
+            try {
+                lm.acquire(older, new HeapPageId(-1, 3), Permissions.READ_WRITE, TIMEOUT_MS);
+                granted.add("older again");
+            } catch (TransactionAbortedException e) {
+                granted.add("older aborted");
+            }
+        });
+        w.start();
+        t.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("older", "third aborted"), granted);
+        lm.releaseTidlock(third);
+        w.join(TIMEOUT_MS);
+        assertEquals(Arrays.asList("older", "third aborted", "older again"), granted);
+    }
+
+    /**
+     * Unit test for lock escalation: past the threshold a reader's page
+     * locks become one table S lock, which still covers every page and
+     * keeps writers out of the whole table
+     */
+    @Test public void readLocksEscalateToTable() throws Exception {
+        lm.setEscalationThreshold(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            lm.acquire(tid, new HeapPageId(-1, i), Permissions.READ_ONLY, 10);
+        }
+        assertEquals(LockMode.IS, lm.tableLockMode(tid, -1));
+        lm.acquire(tid, new HeapPageId(-1, 3), Permissions.READ_ONLY, 10);
+        assertEquals(LockMode.S, lm.tableLockMode(tid, -1));
+        for (int i = 0; i < 4; i++) {
+            assertNull(lm.lockMode(tid, new HeapPageId(-1, i)));
+        }
+        assertTrue(lm.holdsLock(tid, new HeapPageId(-1, 100)));
+        assertTrue(lm.holdsLock(tid, new RecordId(new HeapPageId(-1, 100), 0)));
+
+        try {
+            lm.acquire(new TransactionId(), new HeapPageId(-1, 50), Permissions.READ_WRITE, 10);
+            fail("expected a table S lock to keep writers out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        TransactionId reader = new TransactionId();
+        lm.acquire(reader, new HeapPageId(-1, 50), Permissions.READ_ONLY, 10);
+        assertTrue(lm.holdsLock(reader, new HeapPageId(-1, 50)));
+    }
+
+    /**
+     * Unit test for lock escalation: escalation never waits; while another
+     * transaction writes the table the page locks are simply kept
+     */
+    @Test public void escalationDoesNotWait() throws Exception {
+        TransactionId writer = new TransactionId();
+        lm.acquire(writer, new RecordId(new HeapPageId(-1, 9), 0), Permissions.READ_WRITE, 10);
+        lm.setEscalationThreshold(2);
+        TransactionId tid = new TransactionId();
+        lm.acquire(tid, new HeapPageId(-1, 0), Permissions.READ_ONLY, 10);
+        lm.acquire(tid, new HeapPageId(-1, 1), Permissions.READ_ONLY, 10);
+        assertEquals(LockMode.IS, lm.tableLockMode(tid, -1));
+        assertEquals(LockMode.S, lm.lockMode(tid, new HeapPageId(-1, 0)));
+        assertFalse(lm.holdsLock(tid, new HeapPageId(-1, 2)));
+
+        lm.releaseTidlock(writer);
+        lm.acquire(tid, new HeapPageId(-1, 2), Permissions.READ_ONLY, 10);
+        lm.acquire(tid, new HeapPageId(-1, 3), Permissions.READ_ONLY, 10);
+        assertEquals(LockMode.S, lm.tableLockMode(tid, -1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    /** Records the page numbers passed to writePage and writePages. */
+    private static class RecordingHeapFile extends HeapFile {
+        final ArrayList<Integer> written = new ArrayList<Integer>();
+        // number of writePage and writePages calls
+        int writes;
+
+        RecordingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            written.add(page.getId().getPageNumber());
+            writes++;
+            super.writePage(page);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            for (Page page : pages) {
+                written.add(page.getId().getPageNumber());
+            }
+            writes++;
+            super.writePages(pages);
+        }
+    }
+
+    private RecordingHeapFile hf;
+    private PageCleaner cleaner;
+
+    @Before public void setUp() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1000, null, null);
+        hf = new RecordingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        cleaner = new PageCleaner();
+    }
+
+    private Page page(int pgNo) {
+        return hf.readPage(new HeapPageId(hf.getId(), pgNo));
+    }
+
+    /**
+     * Unit test for PageCleaner.writeThrough(): pages are sorted and each
+     * run of adjacent pages written with one call, and what was written
+     * reads back.
+     */
+    @Test public void writeThroughCoalesces() throws Exception {
+        List<Page> pages = Arrays.asList(page(7), page(2), page(5), page(3), page(6));
+        assertEquals(1, cleaner.writeThrough(pages).size());
+        assertEquals(Arrays.asList(2, 3, 5, 6, 7), hf.written);
+        assertEquals(2, hf.writes);
+        for (Page p : pages) {
+            assertArrayEquals(p.getPageData(), hf.readPage(p.getId()).getPageData());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageStoreTest extends SimpleDbTestBase {
+
+    private File f;
+    private PageStore store;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("pagestore", ".dat");
+        f.deleteOnExit();
+        store = PageStore.get(f);
+    }
+
+    private static byte[] filled(int len, int value) {
+        byte[] data = new byte[len];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    /**
+     * Unit test for PageStore.write() and read(): data written at an
+     * offset reads back, and the file grows to cover it.
+     */
+    @Test public void writeThenRead() throws Exception {
+        store.write(4096, filled(4096, 7));
+        assertEquals(8192, f.length());
+        assertEquals(8192, store.size());
+
+        byte[] buf = new byte[4096];
+        assertEquals(4096, store.read(4096, buf));
+        assertArrayEquals(filled(4096, 7), buf);
+        assertEquals(4096, store.read(0, buf));
+        assertArrayEquals(filled(4096, 0), buf);
+    }
+
+    /**
+     * Unit test for PageStore.read() at and across the end of the file.
+     */
+    @Test public void readPastEnd() throws Exception {
+        store.write(0, filled(100, 1));
+        assertEquals(-1, store.read(100, new byte[10]));
+        assertEquals(40, store.read(60, new byte[50]));
+    }
+
+    /**
+     * Unit test for PageStore.write() of several buffers: they land one
+     * after another from the offset.
+     */
+    @Test public void gatheringWrite() throws Exception {
+        store.write(100, new ByteBuffer[] {
+                ByteBuffer.wrap(filled(10, 1)), ByteBuffer.wrap(filled(20, 2)), ByteBuffer.wrap(filled(5, 3)) });
+        assertEquals(135, store.size());
+        byte[] buf = new byte[35];
+        store.read(100, buf);
+        byte[] expected = new byte[35];
+        Arrays.fill(expected, 0, 10, (byte) 1);
+        Arrays.fill(expected, 10, 30, (byte) 2);
+        Arrays.fill(expected, 30, 35, (byte) 3);
+        assertArrayEquals(expected, buf);
+        store.force();
+    }
+
+    /**
+     * Unit test for PageStore.get(): one store per file, which keeps
+     * working after closeAll() and after an interrupt.
+     */
+    @Test public void sharedAndReopened() throws Exception {
+        assertSame(store, PageStore.get(new File(f.getPath())));
+        store.write(0, filled(10, 3));
+        PageStore.closeAll();
+        assertEquals(10, store.append(filled(5, 4)));
+
+        Thread.currentThread().interrupt();
+        try {
+            byte[] buf = new byte[15];
+            assertEquals(15, store.read(0, buf));
+            assertEquals(4, buf[14]);
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(15, store.size());
+    }
+
+    /**
+     * Unit test for PageStore.read() from mapped segments: reads see
+     * later writes, follow the file as it grows, and span segments.
+     */
+    @Test public void mappedReads() throws Exception {
+        store.write(0, filled(100, 1));
+        store.setMapped(true);
+        try {
+            byte[] buf = new byte[100];
+            assertEquals(100, store.read(0, buf));
+            assertArrayEquals(filled(100, 1), buf);
+
+            store.write(50, filled(100, 2));
+            assertEquals(100, store.read(50, buf));
+            assertArrayEquals(filled(100, 2), buf);
+            assertEquals(-1, store.read(150, buf));
+
+            long boundary = PageStore.MAP_SEGMENT;
+            store.write(boundary - 30, filled(60, 3));
+            buf = new byte[60];
+            assertEquals(60, store.read(boundary - 30, buf));
+            assertArrayEquals(filled(60, 3), buf);
+        } finally {
+            store.setMapped(false);
+        }
+    }
+
+    /**
+     * Unit test for PageStore.truncate() under mapped reads: a read in
+     * progress is never left copying past the new end of the file, which
+     * faults (SIGBUS) and surfaces as an InternalError, if not a crash.
+     */
+    @Test(timeout = 60000) public void truncateDuringMappedReads() throws Exception {
+        int len = 1 << 20;
+        store.write(0, filled(len, 1));
+        store.setMapped(true);
+        try {
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                byte[] buf = new byte[len];
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        store.read(0, buf);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            reader.start();
+            for (int i = 0; i < 200; i++) {
+                store.truncate(len / 2);
+                store.write(0, filled(len, 1));
+            }
+            reader.join();
+            assertNull(failure.get());
+            assertEquals(len, store.size());
+        } finally {
+            store.setMapped(false);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageStoreTest.class);
+    }
+}
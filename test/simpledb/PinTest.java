@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PinTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // 4 pages of 2-int tuples
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        bp = Database.resetBufferPool(2);
+        bp.setReadAheadPages(0);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Unit test for BufferPool.pinPage(): a pinned page survives eviction
+     * pressure, and becomes evictable again once unpinned.
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        bp.pinPage(tid, pid(0));
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        for (int i = 1; i < 4; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        long misses = bp.getStats().getMisses();
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(misses, bp.getStats().getMisses());
+
+        bp.unpinPage(tid, pid(0));
+        assertEquals(0, bp.getPinCount(pid(0)));
+        // with page 1 pinned, page 0 is now the only page that can make room
+        bp.pinPage(tid, pid(1));
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertEquals(misses + 2, bp.getStats().getMisses());
+    }
+
+    /**
+     * Unit test for eviction when every clean page is pinned: the pool goes
+     * over its size rather than failing, and shrinks back once unpinned.
+     */
+    @Test public void allPinnedOvercommits() throws Exception {
+        bp.pinPage(tid, pid(0));
+        bp.pinPage(tid, pid(1));
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertEquals(3, bp.getStats().getResidentPages());
+
+        bp.unpinPage(tid, pid(0));
+        bp.unpinPage(tid, pid(1));
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        assertEquals(2, bp.getStats().getResidentPages());
+    }
+
+    /**
+     * Unit test for the pins held by HeapFile's iterator and for releasing
+     * leftover pins at transaction end
+     */
+    @Test public void iteratorPinsCurrentPage() throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertEquals(1, bp.getPinCount(pid(0)));
+        for (int i = 0; i < 600; i++) {
+            it.next();
+        }
+        assertEquals(0, bp.getPinCount(pid(0)));
+        assertEquals(1, bp.getPinCount(pid(1)));
+        it.close();
+        assertEquals(0, bp.getPinCount(pid(1)));
+
+        it.open();
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getPinCount(pid(0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinTest.class);
+    }
+}
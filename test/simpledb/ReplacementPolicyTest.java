@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Evictable ANY = pid -> true;
+
+    private PageId p0, p1, p2;
+
+    @Before public void createPids() {
+        p0 = new HeapPageId(-1, 0);
+        p1 = new HeapPageId(-1, 1);
+        p2 = new HeapPageId(-1, 2);
+    }
+
+    /**
+     * Unit test for LRUReplacementPolicy.chooseVictim()
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy lru = new LRUReplacementPolicy();
+        lru.recordAccess(p0);
+        lru.recordAccess(p1);
+        lru.recordAccess(p2);
+        lru.recordAccess(p0);
+        assertEquals(p1, lru.chooseVictim(ANY));
+        assertEquals(p2, lru.chooseVictim(ANY));
+        assertEquals(p0, lru.chooseVictim(ANY));
+        assertNull(lru.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy.chooseVictim(): a page referenced
+     * since the hand last passed gets a second chance.
+     */
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy clock = new ClockReplacementPolicy();
+        clock.recordAccess(p0);
+        clock.recordAccess(p1);
+        clock.recordAccess(p2);
+        // first sweep clears all bits and evicts p0
+        assertEquals(p0, clock.chooseVictim(ANY));
+        clock.recordAccess(p1);
+        assertEquals(p2, clock.chooseVictim(ANY));
+        assertEquals(p1, clock.chooseVictim(ANY));
+        assertNull(clock.chooseVictim(ANY));
+    }
+
+    /**
+     * Victims must be evictable, and removed pages are never chosen.
+     */
+    @Test public void skipsPinnedAndRemoved() {
+        ReplacementPolicy[] policies = { new LRUReplacementPolicy(), new ClockReplacementPolicy(),
+                new TwoQueueReplacementPolicy() };
+        for (ReplacementPolicy policy : policies) {
+            policy.recordAccess(p0);
+            policy.recordAccess(p1);
+            policy.recordAccess(p2);
+            policy.remove(p1);
+            assertEquals(p2, policy.chooseVictim(pid -> !pid.equals(p0)));
+            assertNull(policy.chooseVictim(pid -> !pid.equals(p0)));
+            assertEquals(p0, policy.chooseVictim(ANY));
+        }
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: pages touched once by a scan
+     * are evicted before pages that were referenced twice.
+     */
+    @Test public void twoQueueIsScanResistant() {
+        ReplacementPolicy twoQ = new TwoQueueReplacementPolicy();
+        twoQ.recordAccess(p0);
+        twoQ.recordAccess(p0);
+        for (int i = 10; i < 20; i++) {
+            twoQ.recordAccess(new HeapPageId(-1, i));
+        }
+        for (int i = 10; i < 20; i++) {
+            assertEquals(new HeapPageId(-1, i), twoQ.chooseVictim(ANY));
+        }
+        assertEquals(p0, twoQ.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for scan resistance through BufferPool: a pool asked for
+     * more shards than its size supports still keeps twice-read pages
+     * resident while a scan much larger than the pool goes through it.
+     */
+    @Test public void bufferPoolIsScanResistant() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 150 * 504, null, null);
+        assertEquals(150, hf.numPages());
+        BufferPool bp = new BufferPool(50, 16, TwoQueueReplacementPolicy::new);
+        try {
+            bp.setReadAheadPages(0);
+            TransactionId tid = new TransactionId();
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < 10; i++) {
+                    bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                }
+            }
+            for (int i = 10; i < 150; i++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            }
+
+            bp.getStats().reset();
+            for (int i = 0; i < 10; i++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            }
+            assertEquals(0, bp.getStats().getMisses());
+            bp.transactionComplete(tid);
+        } finally {
+            bp.shutdown();
+        }
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: a page that comes back soon
+     * after being evicted from probation is promoted.
+     */
+    @Test public void twoQueuePromotesGhostHits() {
+        ReplacementPolicy twoQ = new TwoQueueReplacementPolicy();
+        twoQ.recordAccess(p0);
+        assertEquals(p0, twoQ.chooseVictim(ANY));
+        twoQ.recordAccess(p0);
+        twoQ.recordAccess(p1);
+        twoQ.recordAccess(p2);
+        assertEquals(p1, twoQ.chooseVictim(ANY));
+        assertEquals(p2, twoQ.chooseVictim(ANY));
+        assertEquals(p0, twoQ.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for ReplacementPolicy.hottestFirst(): the page each policy
+     * would evict first comes last
+     */
+    @Test public void hottestFirstEndsWithVictim() {
+        ReplacementPolicy[] policies = { new LRUReplacementPolicy(), new ClockReplacementPolicy(),
+                new TwoQueueReplacementPolicy() };
+        for (ReplacementPolicy policy : policies) {
+            policy.recordAccess(p0);
+            policy.recordAccess(p1);
+            policy.recordAccess(p2);
+            policy.recordAccess(p0);
+            List<PageId> hottest = policy.hottestFirst();
+            assertEquals(3, hottest.size());
+            assertEquals(hottest.get(2), policy.chooseVictim(ANY));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ResizeTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // 8 pages of 2-int tuples
+        hf = SystemTestUtil.createRandomHeapFile(2, 4000, null, null);
+        bp = Database.resetBufferPool(10);
+        bp.setReadAheadPages(0);
+        tid = new TransactionId();
+    }
+
+    private void readAll() throws Exception {
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    private void awaitResident(int pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getStats().getResidentPages() > pages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(pages, bp.getStats().getResidentPages());
+    }
+
+    /**
+     * Unit test for BufferPool.setNumPages(): shrinking evicts down to the
+     * new size in the background and keeps the remaining pages cached
+     */
+    @Test public void shrinkKeepsCache() throws Exception {
+        readAll();
+        assertEquals(8, bp.getStats().getResidentPages());
+        bp.setNumPages(3);
+        awaitResident(3);
+
+        // grow again so that re-reading evicts nothing: the 3 survivors hit
+        bp.setNumPages(10);
+        long misses = bp.getStats().getMisses();
+        readAll();
+        assertEquals(misses + 5, bp.getStats().getMisses());
+        assertEquals(8, bp.getStats().getResidentPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for growing a pool: pages already cached stay, and the new
+     * frames are used without evicting
+     */
+    @Test public void growKeepsCache() throws Exception {
+        bp.setNumPages(4);
+        readAll();
+        long evictions = bp.getStats().getEvictions();
+        bp.setNumPages(20);
+        readAll();
+        long misses = bp.getStats().getMisses();
+        readAll();
+        assertEquals(8, bp.getStats().getResidentPages());
+        assertEquals(misses, bp.getStats().getMisses());
+        assertEquals(evictions, bp.getStats().getEvictions());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for BufferPool.autoSize()
+     */
+    @Test public void autoSize() {
+        int pages = bp.autoSize(0.01);
+        assertEquals(pages, bp.getNumPages());
+        long expected = (long) (Runtime.getRuntime().maxMemory() * 0.01) / (2 * BufferPool.getPageSize());
+        assertEquals(expected, pages);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ResizeTest.class);
+    }
+}
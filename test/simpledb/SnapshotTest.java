@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotTest extends TestUtil.CreateHeapFile {
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 10; ++i) {
+      bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    }
+    bp.transactionComplete(tid, true);
+  }
+
+  private int count(TransactionId tid) throws Exception {
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /**
+   * Unit test for snapshot reads: a snapshot reader takes no locks, so a
+   * writer is not held up by it, and it keeps seeing the rows committed
+   * when it started while the writer commits more
+   */
+  @Test public void readerSeesItsSnapshot() throws Exception {
+    TransactionId reader = new TransactionId();
+    bp.beginSnapshot(reader);
+    assertEquals(10, count(reader));
+    PageId p0 = new HeapPageId(empty.getId(), 0);
+    assertFalse(bp.holdsLock(reader, p0));
+
+    TransactionId writer = new TransactionId();
+    bp.getPage(writer, p0, Permissions.READ_WRITE);
+    bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(10, 2));
+    // uncommitted rows are not visible, nor do they block the reader
+    assertEquals(10, count(reader));
+    bp.transactionComplete(writer, true);
+    assertEquals(10, count(reader));
+
+    TransactionId later = new TransactionId();
+    bp.beginSnapshot(later);
+    assertEquals(11, count(later));
+
+    bp.transactionComplete(reader, true);
+    bp.transactionComplete(later, true);
+    assertEquals(0, bp.getVersions().numVersions());
+  }
+
+  /**
+   * Unit test for snapshot reads: a snapshot transaction cannot write
+   */
+  @Test public void snapshotCannotWrite() throws Exception {
+    TransactionId reader = new TransactionId();
+    bp.beginSnapshot(reader);
+    try {
+      bp.insertTuple(reader, empty.getId(), Utility.getHeapTuple(10, 2));
+      fail("expected a read-only snapshot to refuse writes");
+    } catch (DbException e) {
+      // expected
+    }
+    bp.transactionComplete(reader, true);
+  }
+
+  /**
+   * Unit test for the version store: with no snapshot running, commits
+   * keep no old page images
+   */
+  @Test public void noVersionsWithoutSnapshots() throws Exception {
+    TransactionId writer = new TransactionId();
+    bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(10, 2));
+    bp.transactionComplete(writer, true);
+    assertEquals(0, bp.getVersions().numVersions());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SnapshotTest.class);
+  }
+
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class WarmStartTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+    private File warmFile;
+
+    @Before public void setUp() throws Exception {
+        // 4 pages of 2-int tuples
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        bp = Database.resetBufferPool(10);
+        bp.setReadAheadPages(0);
+        tid = new TransactionId();
+        warmFile = File.createTempFile("bufferpool", ".warm");
+        warmFile.deleteOnExit();
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Unit test for BufferPoolDump: page ids come back in the order they
+     * were written
+     */
+    @Test public void dumpRoundTrip() throws Exception {
+        PageId btree = new BTreePageId(hf.getId(), 3, BTreePageId.LEAF);
+        BufferPoolDump.write(warmFile, Arrays.asList(pid(2), btree, pid(0)));
+        assertEquals(Arrays.asList(pid(2), btree, pid(0)), BufferPoolDump.read(warmFile));
+    }
+
+    /**
+     * Unit test for BufferPool.prewarm(): pages resident when the last pool
+     * saved its contents are loaded again without a miss
+     */
+    @Test public void prewarmReloadsSavedPages() throws Exception {
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        bp.saveResidentPages(warmFile);
+
+        bp = Database.resetBufferPool(10);
+        assertEquals(Integer.valueOf(3), bp.prewarm(warmFile).get());
+        assertEquals(3, bp.getStats().getResidentPages());
+        for (int pgNo = 1; pgNo < 4; pgNo++) {
+            bp.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        }
+        assertEquals(0, bp.getStats().getMisses());
+    }
+
+    /**
+     * Unit test for the hotness order of saved pages, and for warming up a
+     * smaller pool: only the hottest pages are considered, and pages
+     * already resident are left alone
+     */
+    @Test public void prewarmKeepsHottest() throws Exception {
+        // one shard, so hotness is ranked exactly
+        BufferPool saved = new BufferPool(10, 1, TwoQueueReplacementPolicy::new);
+        saved.getPage(tid, pid(0), Permissions.READ_ONLY);
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            saved.getPage(tid, pid(pgNo), Permissions.READ_ONLY);
+        }
+        saved.getPage(tid, pid(2), Permissions.READ_ONLY);
+        saved.transactionComplete(tid);
+        assertEquals(Arrays.asList(pid(2), pid(0), pid(3), pid(1)),
+                saved.residentPagesByHotness());
+        saved.saveResidentPages(warmFile);
+        saved.shutdown();
+
+        BufferPool warmed = new BufferPool(2, 1, TwoQueueReplacementPolicy::new);
+        warmed.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(Integer.valueOf(1), warmed.prewarm(warmFile).get());
+        warmed.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertEquals(1, warmed.getStats().getMisses());
+        warmed.transactionComplete(tid);
+        warmed.shutdown();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmStartTest.class);
+    }
+}
@@ -68,25 +68,37 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
-    /** Verifies that the buffer pool is actually caching data.
-     * @throws TransactionAbortedException
-     * @throws DbException */
-    @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
-        class InstrumentedHeapFile extends HeapFile {
-            public InstrumentedHeapFile(File f, TupleDesc td) {
-                super(f, td);
-            }
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
 
-            @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            synchronized (this) {
                 readCount += 1;
-                return super.readPage(pid);
+                if (Thread.currentThread().getName().startsWith("simpledb-read-ahead")) {
+                    readAheadCount += 1;
+                }
             }
-
-            public int readCount = 0;
+            try {
+                Thread.sleep(readDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
         }
 
+        public int readCount = 0;
+        public int readAheadCount = 0;
+        public long readDelayMs = 0;
+    }
+
+    /** Verifies that the buffer pool is actually caching data.
+     * @throws TransactionAbortedException
+     * @throws DbException */
+    @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
         // Create the table
         final int PAGES = 30;
         ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
@@ -105,6 +117,48 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that pages evicted from a small buffer pool are served from
+     * its off-heap frames rather than read again. */
+    @Test public void testOffHeapCache() throws IOException, DbException, TransactionAbortedException {
+        System.setProperty(BufferPool.OFF_HEAP_PAGES_PROPERTY, "64");
+        try {
+            Database.resetBufferPool(5);
+        } finally {
+            System.clearProperty(BufferPool.OFF_HEAP_PAGES_PROPERTY);
+        }
+
+        final int PAGES = 30;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        TupleDesc td = Utility.getTupleDesc(1);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+        table.readCount = 0;
+
+        // only 5 pages fit on the heap; the rest come back from the arena
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(0, table.readCount);
+    }
+
+    /** Verifies that a scan reads ahead on the I/O threads, and that pages
+     * it catches up with are not read twice. */
+    @Test public void testReadAhead() throws IOException, DbException, TransactionAbortedException {
+        final int PAGES = 30;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        TupleDesc td = Utility.getTupleDesc(1);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, td);
+        table.readDelayMs = 5;
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+        assertTrue(table.readAheadCount > 0);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);